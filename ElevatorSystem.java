@@ -1,7 +1,26 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 enum Direction {
     UP,
@@ -9,6 +28,304 @@ enum Direction {
     IDLE
 }
 
+interface ElevatorEventSink {
+    void publish(String message);
+}
+
+class AsyncElevatorEventSink implements ElevatorEventSink {
+    private static AsyncElevatorEventSink instance;
+
+    private final BlockingQueue<String> queue;
+    private final AtomicLong dropped = new AtomicLong();
+
+    AsyncElevatorEventSink(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Thread writer = new Thread(() -> {
+            while (true) {
+                try {
+                    System.out.println(queue.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }, "elevator-event-sink");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static synchronized AsyncElevatorEventSink getInstance() {
+        if (instance == null) {
+            instance = new AsyncElevatorEventSink(4096);
+        }
+        return instance;
+    }
+
+    @Override
+    public void publish(String message) {
+        // Never block the elevator thread, drop the event if the writer falls behind
+        if (!queue.offer(message)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+}
+
+class LatencySnapshot {
+    final long count;
+    final long p50;
+    final long p95;
+    final long p99;
+    final long max;
+
+    LatencySnapshot(long count, long p50, long p95, long p99, long max) {
+        this.count = count;
+        this.p50 = p50;
+        this.p95 = p95;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + " p50=" + p50 + "ms p95=" + p95 + "ms p99=" + p99 + "ms max=" + max + "ms";
+    }
+}
+
+class LatencyHistogram {
+    // Log-linear buckets (HDR style): exact below 64ms, ~3% relative error above
+    private static final int SUB_BUCKETS = 64;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_EXPONENT = 31;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + MAX_EXPONENT * HALF_SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    public void record(long millis) {
+        long value = Math.max(0, millis);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        maxValue.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long valueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), maxValue.get());
+            }
+        }
+        return maxValue.get();
+    }
+
+    public LatencySnapshot snapshot() {
+        return new LatencySnapshot(getCount(), valueAtPercentile(50), valueAtPercentile(95),
+                valueAtPercentile(99), maxValue.get());
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = (63 - Long.numberOfLeadingZeros(value)) - 5;
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        return SUB_BUCKETS + (exponent - 1) * HALF_SUB_BUCKETS + (int) ((value >>> exponent) - HALF_SUB_BUCKETS);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+}
+
+interface MetricsExporter {
+    void export(String scope, String metric, LatencySnapshot snapshot);
+}
+
+class ConsoleMetricsExporter implements MetricsExporter {
+    @Override
+    public void export(String scope, String metric, LatencySnapshot snapshot) {
+        System.out.println(scope + " " + metric + ": " + snapshot);
+    }
+}
+
+class ElevatorMetrics {
+    private final String bankId;
+    private final LatencyHistogram bankWait = new LatencyHistogram();
+    private final LatencyHistogram bankRide = new LatencyHistogram();
+    private final Map<String, LatencyHistogram> carWait = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> carRide = new ConcurrentHashMap<>();
+
+    ElevatorMetrics(String bankId) {
+        this.bankId = bankId;
+    }
+
+    public void recordWait(String elevatorId, long millis) {
+        bankWait.record(millis);
+        carWait.computeIfAbsent(elevatorId, k -> new LatencyHistogram()).record(millis);
+    }
+
+    public void recordRide(String elevatorId, long millis) {
+        bankRide.record(millis);
+        carRide.computeIfAbsent(elevatorId, k -> new LatencyHistogram()).record(millis);
+    }
+
+    public LatencySnapshot getBankWait() {
+        return bankWait.snapshot();
+    }
+
+    public LatencySnapshot getBankRide() {
+        return bankRide.snapshot();
+    }
+
+    public void exportTo(MetricsExporter exporter) {
+        exporter.export("bank " + bankId, "wait", bankWait.snapshot());
+        exporter.export("bank " + bankId, "ride", bankRide.snapshot());
+        for (Map.Entry<String, LatencyHistogram> entry : carWait.entrySet()) {
+            exporter.export("car " + entry.getKey(), "wait", entry.getValue().snapshot());
+        }
+        for (Map.Entry<String, LatencyHistogram> entry : carRide.entrySet()) {
+            exporter.export("car " + entry.getKey(), "ride", entry.getValue().snapshot());
+        }
+    }
+}
+
+class PassengerTrip {
+    final int pickupFloor;
+    final long registeredAt;
+    long pickedUpAt;
+    int destinationFloor = -1;
+
+    PassengerTrip(int pickupFloor, long registeredAt) {
+        this.pickupFloor = pickupFloor;
+        this.registeredAt = registeredAt;
+    }
+}
+
+// Follows each hall call from registration -> pickup -> drop-off for one car
+class TripTracker {
+    // A boarded passenger who never pressed a floor button is dropped after this long
+    static final long DESTINATION_TIMEOUT_MILLIS = 60_000;
+
+    private final String elevatorId;
+    private ElevatorMetrics metrics;
+    private final List<PassengerTrip> waiting = new ArrayList<>();
+    private final List<PassengerTrip> riding = new ArrayList<>();
+
+    TripTracker(String elevatorId) {
+        this.elevatorId = elevatorId;
+    }
+
+    public synchronized void setMetrics(ElevatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized void onHallCall(int floor, long nowMillis) {
+        waiting.add(new PassengerTrip(floor, nowMillis));
+    }
+
+    public synchronized void onCarCall(int floor, long nowMillis) {
+        // Give the destination to the earliest boarded passenger without one
+        for (PassengerTrip trip : riding) {
+            if (trip.destinationFloor < 0) {
+                trip.destinationFloor = floor;
+                return;
+            }
+        }
+        // Passenger boarded without a hall call, the ride starts now
+        PassengerTrip trip = new PassengerTrip(-1, nowMillis);
+        trip.pickedUpAt = nowMillis;
+        trip.destinationFloor = floor;
+        riding.add(trip);
+    }
+
+    public synchronized boolean hasPassengerAwaitingDestination() {
+        for (PassengerTrip trip : riding) {
+            if (trip.destinationFloor < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void onCancel(int floor) {
+        waiting.removeIf(trip -> trip.pickupFloor == floor);
+        riding.removeIf(trip -> trip.destinationFloor == floor);
+    }
+
+    // Called every tick, including while the car sits idle, so a passenger with no car call can't ride forever
+    public synchronized int expireRidersWithoutDestination(long nowMillis) {
+        int before = riding.size();
+        riding.removeIf(trip -> trip.destinationFloor < 0 && nowMillis - trip.pickedUpAt >= DESTINATION_TIMEOUT_MILLIS);
+        return before - riding.size();
+    }
+
+    public synchronized void onArrival(int floor, long nowMillis) {
+        Iterator<PassengerTrip> rides = riding.iterator();
+        while (rides.hasNext()) {
+            PassengerTrip trip = rides.next();
+            if (trip.destinationFloor == floor) {
+                rides.remove();
+                if (metrics != null) {
+                    metrics.recordRide(elevatorId, nowMillis - trip.pickedUpAt);
+                }
+            }
+        }
+        Iterator<PassengerTrip> waits = waiting.iterator();
+        while (waits.hasNext()) {
+            PassengerTrip trip = waits.next();
+            if (trip.pickupFloor == floor) {
+                waits.remove();
+                trip.pickedUpAt = nowMillis;
+                riding.add(trip);
+                if (metrics != null) {
+                    metrics.recordWait(elevatorId, nowMillis - trip.registeredAt);
+                }
+            }
+        }
+    }
+}
+
+interface ElevatorClock {
+    ElevatorClock SYSTEM = System::currentTimeMillis;
+
+    long millis();
+}
+
+class SimulatedElevatorClock implements ElevatorClock {
+    private long now;
+
+    @Override
+    public long millis() {
+        return now;
+    }
+
+    public void advance(long millis) {
+        now += millis;
+    }
+}
+
 class Elevator {
     String id;
     Direction direction;
@@ -17,8 +334,18 @@ class Elevator {
     int currentLoad;
     List<Integer> upRequests;
     List<Integer> downRequests;
+    TripTracker tripTracker;
+    ElevatorEventSink eventSink;
+    ElevatorClock clock;
+    long tripCount;
+    long stopCount;
 
     Elevator(String id,int capacity) {
+        this(id, capacity, null);
+    }
+
+    // A null sink falls back to the shared console sink on first use
+    Elevator(String id, int capacity, ElevatorEventSink eventSink) {
         this.id = id;
         this.capacity = capacity;
         this.direction = Direction.IDLE;
@@ -26,6 +353,33 @@ class Elevator {
         this.currentLoad = 0;
         this.upRequests = new ArrayList<>();
         this.downRequests = new ArrayList<>();
+        this.tripTracker = new TripTracker(id);
+        this.eventSink = eventSink;
+        this.clock = ElevatorClock.SYSTEM;
+    }
+
+    public void setClock(ElevatorClock clock) {
+        this.clock = clock;
+    }
+
+    public boolean hasPendingRequests() {
+        return !upRequests.isEmpty() || !downRequests.isEmpty();
+    }
+
+    public void setMetrics(ElevatorMetrics metrics) {
+        tripTracker.setMetrics(metrics);
+    }
+
+    public void setEventSink(ElevatorEventSink eventSink) {
+        this.eventSink = eventSink;
+    }
+
+    // Resolved lazily so replays and tests with their own sink never start the writer thread
+    private ElevatorEventSink sink() {
+        if (eventSink == null) {
+            eventSink = AsyncElevatorEventSink.getInstance();
+        }
+        return eventSink;
     }
 
     public Direction getDirection() {
@@ -40,10 +394,47 @@ class Elevator {
         return currentLoad >= capacity;
     }
 
+    // Returns false if the car is full and the call was ignored
+    public boolean addHallCall(int floor) {
+        if (isOverloaded()) {
+            sink().publish("Elevator " + id + " is at capacity! Request ignored.");
+            return false;
+        }
+        long now = clock.millis();
+        tripTracker.onHallCall(floor, now);
+        addRequest(floor);
+        if (floor == currentFloor) {
+            tripTracker.onArrival(floor, now);
+        }
+        return true;
+    }
+
+    // Returns false if the car is full and the call was ignored
+    public boolean addCarCall(int floor) {
+        if (isOverloaded()) {
+            sink().publish("Elevator " + id + " is at capacity! Request ignored.");
+            return false;
+        }
+        long now = clock.millis();
+        if (floor == currentFloor) {
+            // Already there: the ride ends on the spot instead of waiting for a stop that never comes
+            boolean boarded = tripTracker.hasPassengerAwaitingDestination();
+            tripTracker.onCarCall(floor, now);
+            tripTracker.onArrival(floor, now);
+            if (boarded) {
+                currentLoad = Math.max(0, currentLoad - 1); // the hall call counted them on board
+            }
+            return true;
+        }
+        tripTracker.onCarCall(floor, now);
+        addRequest(floor);
+        return true;
+    }
+
     public void addRequest(int floor) {
-        System.out.println("currentLoad = " + currentLoad + " " + capacity + " " + isOverloaded());
+        sink().publish("currentLoad = " + currentLoad + " " + capacity + " " + isOverloaded());
         if (isOverloaded()) {
-            System.out.println("Elevator " + id + " is at capacity! Request ignored.");
+            sink().publish("Elevator " + id + " is at capacity! Request ignored.");
             return;
         }
         if (floor > currentFloor) {
@@ -57,6 +448,8 @@ class Elevator {
     }
 
     public void processNextRequest() {
+        int expired = tripTracker.expireRidersWithoutDestination(clock.millis());
+        currentLoad = Math.max(0, currentLoad - expired); // they got off without riding anywhere
         if (direction == Direction.IDLE) {
             if (!upRequests.isEmpty()) {
                 direction = Direction.UP;
@@ -65,16 +458,21 @@ class Elevator {
             } else {
                 return;
             }
+            tripCount++;
         }
         if (direction == Direction.UP && !upRequests.isEmpty()) {
             int nextFloor = upRequests.remove(0);
             currentFloor = nextFloor;
-            System.out.println("Elevator " + id + " moved to floor " + currentFloor);
+            stopCount++;
+            tripTracker.onArrival(currentFloor, clock.millis());
+            sink().publish("Elevator " + id + " moved to floor " + currentFloor);
             currentLoad = Math.max(0, currentLoad - 1); // simulate a passenger leaving
         } else if (direction == Direction.DOWN && !downRequests.isEmpty()) {
             int nextFloor = downRequests.remove(0);
             currentFloor = nextFloor;
-            System.out.println("Elevator " + id + " moved to floor " + currentFloor);
+            stopCount++;
+            tripTracker.onArrival(currentFloor, clock.millis());
+            sink().publish("Elevator " + id + " moved to floor " + currentFloor);
             currentLoad = Math.max(0, currentLoad - 1);
         } else {
             if (direction == Direction.UP && !downRequests.isEmpty()) {
@@ -91,33 +489,28 @@ class Elevator {
     public void cancelRequest(int floor) {
         if (upRequests.remove(Integer.valueOf(floor)) || downRequests.remove(Integer.valueOf(floor))) {
             currentLoad = Math.max(0, currentLoad - 1); // simulate passenger cancellation
-            System.out.println("Request for floor " + floor + " canceled in elevator " + id);
+            tripTracker.onCancel(floor);
+            sink().publish("Request for floor " + floor + " canceled in elevator " + id);
         } else {
-            System.out.println("No such request for floor " + floor + " found in elevator " + id);
+            sink().publish("No such request for floor " + floor + " found in elevator " + id);
         }
     }
 }
 
-class ElevatorController {
-    List<Elevator> elevators;
+interface DispatchPolicy {
+    String getName();
 
-    ElevatorController(List<Elevator> elevators) {
-        this.elevators = elevators;
-    }
+    Elevator selectElevator(List<Elevator> elevators, int fromFloor, Direction direction);
+}
 
-    public void incomingExternalRequest(int fromFloor, Direction direction) {
-        // Find the best elevator to handle it
-        Elevator bestElevator = findBestElevator(fromFloor, direction);
-        // Assign request to that elevator
-        bestElevator.addRequest(fromFloor);
-    }
-    
-    public void incomingInternalRequest(Elevator elevator, int toFloor) {
-        // Assign request to that elevator
-        elevator.addRequest(toFloor);
+class NearestElevatorPolicy implements DispatchPolicy {
+    @Override
+    public String getName() {
+        return "nearest";
     }
 
-    private Elevator findBestElevator(int fromFloor, Direction direction) {
+    @Override
+    public Elevator selectElevator(List<Elevator> elevators, int fromFloor, Direction direction) {
         Elevator bestElevator = null;
         int minDistance = Integer.MAX_VALUE;
 
@@ -139,6 +532,87 @@ class ElevatorController {
 
         return bestElevator;
     }
+}
+
+class LeastLoadedPolicy implements DispatchPolicy {
+    @Override
+    public String getName() {
+        return "least-loaded";
+    }
+
+    @Override
+    public Elevator selectElevator(List<Elevator> elevators, int fromFloor, Direction direction) {
+        Elevator bestElevator = elevators.get(0);
+        for (Elevator elevator : elevators) {
+            int load = elevator.upRequests.size() + elevator.downRequests.size();
+            int bestLoad = bestElevator.upRequests.size() + bestElevator.downRequests.size();
+            if (load < bestLoad || (load == bestLoad
+                    && Math.abs(elevator.getCurrentFloor() - fromFloor) < Math.abs(bestElevator.getCurrentFloor() - fromFloor))) {
+                bestElevator = elevator;
+            }
+        }
+        return bestElevator;
+    }
+}
+
+class ElevatorController {
+    List<Elevator> elevators;
+    ElevatorMetrics metrics;
+    DispatchPolicy dispatchPolicy;
+    TrafficRecorder recorder;
+
+    ElevatorController(List<Elevator> elevators) {
+        this("bank-1", elevators);
+    }
+
+    ElevatorController(String bankId, List<Elevator> elevators) {
+        this(bankId, elevators, new NearestElevatorPolicy());
+    }
+
+    ElevatorController(String bankId, List<Elevator> elevators, DispatchPolicy dispatchPolicy) {
+        this.elevators = elevators;
+        this.dispatchPolicy = dispatchPolicy;
+        this.metrics = new ElevatorMetrics(bankId);
+        for (Elevator elevator : elevators) {
+            elevator.setMetrics(metrics);
+        }
+    }
+
+    public void setRecorder(TrafficRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    public ElevatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void exportMetrics(MetricsExporter exporter) {
+        metrics.exportTo(exporter);
+    }
+
+    // Returns false if the chosen elevator was full and dropped the call
+    public boolean incomingExternalRequest(int fromFloor, Direction direction) {
+        if (recorder != null) {
+            recorder.recordHallCall(fromFloor, direction);
+        }
+        // Find the best elevator to handle it
+        Elevator bestElevator = findBestElevator(fromFloor, direction);
+        // Assign request to that elevator
+        return bestElevator.addHallCall(fromFloor);
+    }
+    
+    // Returns false if the elevator was full and dropped the call
+    public boolean incomingInternalRequest(Elevator elevator, int toFloor) {
+        if (recorder != null) {
+            recorder.recordCarCall(elevators.indexOf(elevator), toFloor);
+        }
+        // Assign request to that elevator
+        return elevator.addCarCall(toFloor);
+    }
+
+    private Elevator findBestElevator(int fromFloor, Direction direction) {
+        return dispatchPolicy.selectElevator(elevators, fromFloor, direction);
+    }
 
     public void start() {
         for (Elevator elevator : elevators) {
@@ -156,17 +630,322 @@ class ElevatorController {
     }
 }
 
+enum TraceEventType {
+    HALL_CALL,
+    CAR_CALL
+}
+
+class TraceEvent {
+    final TraceEventType type;
+    final long timestampMillis;
+    final int floor;
+    final Direction direction; // hall calls only
+    final int carIndex; // car calls only
+
+    TraceEvent(TraceEventType type, long timestampMillis, int floor, Direction direction, int carIndex) {
+        this.type = type;
+        this.timestampMillis = timestampMillis;
+        this.floor = floor;
+        this.direction = direction;
+        this.carIndex = carIndex;
+    }
+}
+
+class TrafficTraceWriter implements Closeable {
+    // Layout: magic, version, then per event: type byte, varint time delta, zigzag varint floor, direction/car varint
+    static final int MAGIC = 0x45545243; // "ETRC"
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private long lastTimestamp;
+
+    TrafficTraceWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    public void write(TraceEvent event) throws IOException {
+        out.writeByte(event.type.ordinal());
+        writeVarLong(Math.max(0, event.timestampMillis - lastTimestamp));
+        lastTimestamp = Math.max(lastTimestamp, event.timestampMillis);
+        writeVarLong((event.floor << 1) ^ (event.floor >> 31));
+        if (event.type == TraceEventType.HALL_CALL) {
+            writeVarLong(event.direction.ordinal());
+        } else {
+            writeVarLong(event.carIndex);
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
+
+class TrafficTraceReader {
+    public static List<TraceEvent> readAll(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (in.readInt() != TrafficTraceWriter.MAGIC) {
+            throw new IOException("Not an elevator traffic trace");
+        }
+        int version = in.readUnsignedByte();
+        if (version != TrafficTraceWriter.VERSION) {
+            throw new IOException("Unsupported trace version " + version);
+        }
+        List<TraceEvent> events = new ArrayList<>();
+        long timestamp = 0;
+        while (true) {
+            int type;
+            try {
+                type = in.readUnsignedByte();
+            } catch (EOFException e) {
+                break;
+            }
+            timestamp += readVarLong(in);
+            int zigzag = (int) readVarLong(in);
+            int floor = (zigzag >>> 1) ^ -(zigzag & 1);
+            int extra = (int) readVarLong(in);
+            if (type == TraceEventType.HALL_CALL.ordinal()) {
+                if (extra < 0 || extra >= Direction.values().length) {
+                    throw new IOException("Unknown hall call direction " + extra);
+                }
+                events.add(new TraceEvent(TraceEventType.HALL_CALL, timestamp, floor, Direction.values()[extra], -1));
+            } else if (type == TraceEventType.CAR_CALL.ordinal()) {
+                events.add(new TraceEvent(TraceEventType.CAR_CALL, timestamp, floor, null, extra));
+            } else {
+                throw new IOException("Unknown trace event type " + type);
+            }
+        }
+        return events;
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
+
+class TrafficRecorder implements Closeable {
+    // Events stay in the writer's buffer between flushes, close() writes out the rest
+    static final long FLUSH_INTERVAL_MILLIS = 5000;
+
+    private final TrafficTraceWriter writer;
+    private final ElevatorClock clock;
+    private final long startedAt;
+    private long lastFlushAt;
+
+    TrafficRecorder(OutputStream out, ElevatorClock clock) throws IOException {
+        this.writer = new TrafficTraceWriter(out);
+        this.clock = clock;
+        this.startedAt = clock.millis();
+        this.lastFlushAt = startedAt;
+    }
+
+    public synchronized void recordHallCall(int floor, Direction direction) {
+        write(new TraceEvent(TraceEventType.HALL_CALL, clock.millis() - startedAt, floor, direction, -1));
+    }
+
+    public synchronized void recordCarCall(int carIndex, int floor) {
+        write(new TraceEvent(TraceEventType.CAR_CALL, clock.millis() - startedAt, floor, null, carIndex));
+    }
+
+    private void write(TraceEvent event) {
+        try {
+            writer.write(event);
+            long now = clock.millis();
+            if (now - lastFlushAt >= FLUSH_INTERVAL_MILLIS) {
+                writer.flush();
+                lastFlushAt = now;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
+
+class ReplayReport {
+    final String policyName;
+    final long passengers; // hall calls a car accepted
+    final long droppedCalls; // hall and car calls ignored by a full car, not part of waitTimes
+    final LatencySnapshot waitTimes;
+    final long carTrips;
+    final long stops;
+
+    ReplayReport(String policyName, long passengers, long droppedCalls, LatencySnapshot waitTimes, long carTrips,
+            long stops) {
+        this.policyName = policyName;
+        this.passengers = passengers;
+        this.droppedCalls = droppedCalls;
+        this.waitTimes = waitTimes;
+        this.carTrips = carTrips;
+        this.stops = stops;
+    }
+
+    public double getStopsPerPassenger() {
+        return passengers == 0 ? 0 : (double) stops / passengers;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-14s passengers=%d dropped=%d wait[%s] trips=%d stops/passenger=%.2f",
+                policyName, passengers, droppedCalls, waitTimes, carTrips, getStopsPerPassenger());
+    }
+}
+
+class TraceReplayRunner {
+    private static final long TICK_MILLIS = 1000; // same pace as ElevatorController.start()
+    private static final long MAX_DRAIN_TICKS = 100_000;
+
+    private final int elevatorCount;
+    private final int capacity;
+
+    TraceReplayRunner(int elevatorCount, int capacity) {
+        this.elevatorCount = elevatorCount;
+        this.capacity = capacity;
+    }
+
+    public List<ReplayReport> compare(List<TraceEvent> trace, List<DispatchPolicy> policies) {
+        List<ReplayReport> reports = new ArrayList<>();
+        for (DispatchPolicy policy : policies) {
+            reports.add(replay(trace, policy));
+        }
+        return reports;
+    }
+
+    public ReplayReport replay(List<TraceEvent> trace, DispatchPolicy policy) {
+        // Runs on a simulated clock, so a trace replays as fast as the CPU allows
+        SimulatedElevatorClock clock = new SimulatedElevatorClock();
+        ElevatorEventSink silent = message -> { };
+        List<Elevator> elevators = new ArrayList<>();
+        for (int i = 0; i < elevatorCount; i++) {
+            Elevator elevator = new Elevator("Elevator" + (i + 1), capacity, silent);
+            elevator.setClock(clock);
+            elevators.add(elevator);
+        }
+        ElevatorController controller = new ElevatorController("replay-" + policy.getName(), elevators, policy);
+
+        long passengers = 0;
+        long droppedCalls = 0;
+        int next = 0;
+        long drainTicks = 0;
+        while (next < trace.size() || anyPending(elevators)) {
+            while (next < trace.size() && trace.get(next).timestampMillis <= clock.millis()) {
+                TraceEvent event = trace.get(next++);
+                boolean accepted;
+                if (event.type == TraceEventType.HALL_CALL) {
+                    accepted = controller.incomingExternalRequest(event.floor, event.direction);
+                    if (accepted) {
+                        passengers++;
+                    }
+                } else {
+                    accepted = controller.incomingInternalRequest(resolveCar(elevators, event.carIndex), event.floor);
+                }
+                if (!accepted) {
+                    droppedCalls++;
+                }
+            }
+            for (Elevator elevator : elevators) {
+                elevator.processNextRequest();
+            }
+            clock.advance(TICK_MILLIS);
+            if (next >= trace.size() && ++drainTicks > MAX_DRAIN_TICKS) {
+                break;
+            }
+        }
+
+        long trips = 0;
+        long stops = 0;
+        for (Elevator elevator : elevators) {
+            trips += elevator.tripCount;
+            stops += elevator.stopCount;
+        }
+        return new ReplayReport(policy.getName(), passengers, droppedCalls, controller.getMetrics().getBankWait(),
+                trips, stops);
+    }
+
+    private Elevator resolveCar(List<Elevator> elevators, int recordedIndex) {
+        // The recorded car may not have picked this passenger up under another policy,
+        // so prefer whichever car actually has a boarded passenger without a destination
+        if (recordedIndex >= 0 && recordedIndex < elevators.size()
+                && elevators.get(recordedIndex).tripTracker.hasPassengerAwaitingDestination()) {
+            return elevators.get(recordedIndex);
+        }
+        for (Elevator elevator : elevators) {
+            if (elevator.tripTracker.hasPassengerAwaitingDestination()) {
+                return elevator;
+            }
+        }
+        return elevators.get(Math.floorMod(recordedIndex, elevators.size()));
+    }
+
+    private boolean anyPending(List<Elevator> elevators) {
+        for (Elevator elevator : elevators) {
+            if (elevator.hasPendingRequests()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
 
 public class ElevatorSystem {
-    public static void main(String[] args) {
-        Elevator elevator1 = new Elevator("Elevator1", 4);
-        Elevator elevator2 = new Elevator("Elevator2", 4);
+    static final int DEFAULT_ELEVATORS = 2;
+    static final int DEFAULT_CAPACITY = 4;
+
+    public static void main(String[] args) throws IOException {
+        // replay <trace> [elevators] [capacity], defaults match the interactive bank below
+        if (args.length >= 2 && args[0].equals("replay")) {
+            List<TraceEvent> trace;
+            try (InputStream in = new FileInputStream(args[1])) {
+                trace = TrafficTraceReader.readAll(in);
+            }
+            int elevatorCount = args.length >= 3 ? Integer.parseInt(args[2]) : DEFAULT_ELEVATORS;
+            int capacity = args.length >= 4 ? Integer.parseInt(args[3]) : DEFAULT_CAPACITY;
+            TraceReplayRunner runner = new TraceReplayRunner(elevatorCount, capacity);
+            List<DispatchPolicy> policies = List.of(new NearestElevatorPolicy(), new LeastLoadedPolicy());
+            for (ReplayReport report : runner.compare(trace, policies)) {
+                System.out.println(report);
+            }
+            return;
+        }
 
         List<Elevator> elevators = new ArrayList<>();
-        elevators.add(elevator1);
-        elevators.add(elevator2);
+        for (int i = 1; i <= DEFAULT_ELEVATORS; i++) {
+            elevators.add(new Elevator("Elevator" + i, DEFAULT_CAPACITY));
+        }
 
         ElevatorController controller = new ElevatorController(elevators);
+        TrafficRecorder recorder = null;
+        if (args.length >= 2 && args[0].equals("record")) {
+            recorder = new TrafficRecorder(new FileOutputStream(args[1]), ElevatorClock.SYSTEM);
+            controller.setRecorder(recorder);
+        }
         controller.start();
 
         Scanner scanner = new Scanner(System.in);
@@ -177,6 +956,7 @@ public class ElevatorSystem {
             System.out.println("2: Internal Request (format: 2 elevatorId toFloor)");
             System.out.println("3: Cancel Request (format: 3 elevatorId floor)");
             System.out.println("4: Exit");
+            System.out.println("5: Show Wait/Ride Latency (format: 5)");
 
             int choice = scanner.nextInt();
             if (choice == 4) {
@@ -220,12 +1000,19 @@ public class ElevatorSystem {
                     }
                     break;
                 }
+                case 5: {
+                    controller.exportMetrics(new ConsoleMetricsExporter());
+                    break;
+                }
                 default:
                     System.out.println("Invalid choice!");
             }
         }
 
         scanner.close();
+        if (recorder != null) {
+            recorder.close();
+        }
         System.out.println("Simulation finished!");
     }
 }
@@ -262,6 +1049,8 @@ UML Diagram
 |                  ElevatorController                         |
 ──────────────────────────────────────────────────────────────
 | - elevators: List<Elevator>                                 |
+| - dispatchPolicy: DispatchPolicy                            |
+| - recorder: TrafficRecorder                                 |
 ──────────────────────────────────────────────────────────────
 | + incomingExternalRequest(int, Direction): void             |
 | + incomingInternalRequest(Elevator, int): void              |
@@ -279,6 +1068,23 @@ UML Diagram
 | + main(String[]): void      |
 ─────────────────────────────
 
+──────────────────────────────────────────────────────────────
+|                  ElevatorMetrics                            |
+──────────────────────────────────────────────────────────────
+| - bankWait / bankRide: LatencyHistogram                     |
+| - carWait / carRide: Map<String, LatencyHistogram>          |
+──────────────────────────────────────────────────────────────
+| + recordWait(String, long): void                            |
+| + recordRide(String, long): void                            |
+| + exportTo(MetricsExporter): void                           |
+──────────────────────────────────────────────────────────────
+
+TripTracker (one per Elevator): hall call -> pickup (wait) -> drop-off (ride)
+ElevatorEventSink <- AsyncElevatorEventSink (bounded queue, daemon writer)
+MetricsExporter   <- ConsoleMetricsExporter
+DispatchPolicy    <- NearestElevatorPolicy, LeastLoadedPolicy
+TrafficRecorder -> TrafficTraceWriter (binary trace) -> TrafficTraceReader -> TraceReplayRunner -> ReplayReport
+
 ─────────────────────────────
 |         Direction (enum)    |
 ─────────────────────────────
@@ -1,4 +1,49 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 class User {
     String id;
@@ -6,21 +51,25 @@ class User {
     String email;
     String hashedPassword;
     String profilePictureUrl;
-    List<User> friends;
-    List<FriendRequest> friendRequests;
-    Map<String, Post> posts;
-    List<Notification> notifications;
+    Set<User> friends;
+    PostLog postLog; // time-ordered post IDs for feed merges
+    NotificationInbox notifications;
 
     public User(String id, String name, String email, String hashedPassword) {
+        this(id, name, email, hashedPassword,
+                new NotificationInbox(NotificationInbox.DEFAULT_CAPACITY, new InMemoryNotificationColdStore()));
+    }
+
+    public User(String id, String name, String email, String hashedPassword, NotificationInbox notifications) {
         this.id = id;
         this.name = name;
         this.email = email;
         this.hashedPassword = hashedPassword;
         this.profilePictureUrl = "";
-        this.friends = new ArrayList<>();
-        this.friendRequests = new ArrayList<>();
-        this.posts = new HashMap<>();
-        this.notifications = new ArrayList<>();
+        // Concurrent set: O(1) adds even for celebrities, weakly consistent iteration for fan-out
+        this.friends = ConcurrentHashMap.newKeySet();
+        this.postLog = new PostLog();
+        this.notifications = notifications;
     }
 
     public void setProfilePicture(String url) {
@@ -28,22 +77,19 @@ class User {
     }
 
     public void addFriend(User friend) {
-        if (friends == null) {
-            friends = new ArrayList<>();
-        }
         friends.add(friend);
     }
 
-    public void recieveFriendRequest(FriendRequest request) {
-        friendRequests.add(request);
-    }
-
     public List<User> getFriends() {
         return friends.stream().toList();
     }
 
-    public List<Post> getPosts() {
-        return new ArrayList<>(posts.values());
+    public List<String> getPostIds() {
+        List<String> ids = new ArrayList<>(postLog.size());
+        for (int i = 0; i < postLog.size(); i++) {
+            ids.add(postLog.idAt(i));
+        }
+        return ids;
     }
 
     public void addNotification(Notification notification) {
@@ -56,54 +102,281 @@ class Comment {
     String userId;
     String postId;
     String content;
+    long createdAt;
 
     public Comment(String id, String userId, String postId, String content) {
+        this(id, userId, postId, content, System.currentTimeMillis());
+    }
+
+    public Comment(String id, String userId, String postId, String content, long createdAt) {
         this.id = id;
         this.userId = userId;
         this.postId = postId;
         this.content = content;
+        this.createdAt = createdAt;
+    }
+}
+
+class CommentPage {
+    final List<Comment> comments;
+    final String nextCursor; // null once the thread is exhausted
+
+    public CommentPage(List<Comment> comments, String nextCursor) {
+        this.comments = comments;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Comment> getComments() {
+        return comments;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
+
+class CommentThread {
+    static final int SEGMENT_SIZE = 64;
+
+    // Arrival positions and comments of one run of the thread; removed comments leave a null slot until compacted
+    private static class Segment {
+        final int[] positions = new int[SEGMENT_SIZE];
+        final Comment[] comments = new Comment[SEGMENT_SIZE];
+        int size; // filled slots, including removed ones
+        int live;
+
+        int indexOf(int position) {
+            return Arrays.binarySearch(positions, 0, size, position);
+        }
+
+        int lastPosition() {
+            return positions[size - 1];
+        }
+
+        // Drops the null slots, positions stay ascending
+        void compact() {
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (comments[i] != null) {
+                    positions[kept] = positions[i];
+                    comments[kept] = comments[i];
+                    kept++;
+                }
+            }
+            Arrays.fill(comments, kept, size, null);
+            size = kept;
+        }
+    }
+
+    // Segments in arrival order; a segment is compacted once half of it is removed and dropped once empty,
+    // so a page never walks more removed slots than comments it returns
+    private final List<Segment> segments = new ArrayList<>();
+    private final Map<String, Integer> positionById = new HashMap<>();
+    private int nextPosition; // arrival position, stays stable for cursors across compaction
+    private int count; // denormalized, excludes removed comments
+
+    public synchronized void add(Comment comment) {
+        Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail == null || tail.size == SEGMENT_SIZE) {
+            tail = new Segment();
+            segments.add(tail);
+        }
+        tail.positions[tail.size] = nextPosition;
+        tail.comments[tail.size] = comment;
+        tail.size++;
+        tail.live++;
+        positionById.put(comment.id, nextPosition);
+        nextPosition++;
+        count++;
+    }
+
+    public synchronized boolean remove(String commentId) {
+        Integer position = positionById.remove(commentId);
+        if (position == null) {
+            return false;
+        }
+        int segmentIndex = segmentFrom(position);
+        Segment segment = segments.get(segmentIndex);
+        segment.comments[segment.indexOf(position)] = null;
+        segment.live--;
+        count--;
+        if (segment.live == 0) {
+            segments.remove(segmentIndex);
+        } else if (segment.live * 2 <= segment.size) {
+            segment.compact();
+        }
+        return true;
+    }
+
+    public synchronized Comment get(String commentId) {
+        Integer position = positionById.get(commentId);
+        if (position == null) {
+            return null;
+        }
+        Segment segment = segments.get(segmentFrom(position));
+        return segment.comments[segment.indexOf(position)];
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    // Oldest first. Pass the previous page's cursor, or null for the first page
+    public synchronized CommentPage page(String cursor, int limit) {
+        int position = cursor == null ? 0 : decodeCursor(cursor);
+        List<Comment> page = new ArrayList<>(Math.min(limit, count));
+        int segmentIndex = segmentFrom(position);
+        while (segmentIndex < segments.size() && page.size() < limit) {
+            Segment segment = segments.get(segmentIndex);
+            int slot = segment.indexOf(position);
+            for (slot = slot < 0 ? -slot - 1 : slot; slot < segment.size && page.size() < limit; slot++) {
+                if (segment.comments[slot] != null) {
+                    page.add(segment.comments[slot]);
+                }
+                position = segment.positions[slot] + 1;
+            }
+            if (slot == segment.size) {
+                segmentIndex++;
+            }
+        }
+        // Only hand out a cursor if a live comment actually follows, so clients never fetch an empty last page
+        String nextCursor = hasLiveFrom(position) ? encodeCursor(position) : null;
+        return new CommentPage(page, nextCursor);
+    }
+
+    public synchronized List<Comment> getAll() {
+        List<Comment> all = new ArrayList<>(count);
+        for (Segment segment : segments) {
+            for (int i = 0; i < segment.size; i++) {
+                if (segment.comments[i] != null) {
+                    all.add(segment.comments[i]);
+                }
+            }
+        }
+        return all;
+    }
+
+    // Bounded: a segment never holds more removed slots than live ones, and empty segments are dropped
+    private boolean hasLiveFrom(int position) {
+        for (int segmentIndex = segmentFrom(position); segmentIndex < segments.size(); segmentIndex++) {
+            Segment segment = segments.get(segmentIndex);
+            int slot = segment.indexOf(position);
+            for (slot = slot < 0 ? -slot - 1 : slot; slot < segment.size; slot++) {
+                if (segment.comments[slot] != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // First segment holding a position at or after the given one
+    private int segmentFrom(int position) {
+        int low = 0;
+        int high = segments.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segments.get(middle).lastPosition() < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static String encodeCursor(int position) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Integer.toString(position).getBytes());
+    }
+
+    private static int decodeCursor(String cursor) {
+        try {
+            int position = Integer.parseInt(new String(Base64.getUrlDecoder().decode(cursor)));
+            if (position < 0) {
+                throw new IllegalArgumentException("Invalid cursor.");
+            }
+            return position;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
     }
 }
 
 class Post {
+    // Feed order: newest first by (createdAt, sequence); sequence only breaks ties within a millisecond
+    static final Comparator<Post> NEWEST_FIRST =
+            Comparator.comparingLong((Post post) -> post.createdAt).thenComparingLong(post -> post.sequence).reversed();
+
     String id;
     String userId;
     String content;
-    List<String> likes;
-    List<Comment> comments;
+    long sequence; // unique, increasing within each author's posts
+    long createdAt;
+    Set<String> likes;
+    LongAdder likeCount; // striped, so hot posts don't serialize on one counter
+    CommentThread comments;
 
     public Post(String id, String userId, String content) {
+        this(id, userId, content, 0, System.currentTimeMillis());
+    }
+
+    public Post(String id, String userId, String content, long sequence, long createdAt) {
         this.id = id;
         this.userId = userId;
         this.content = content;
-        this.likes = new ArrayList<>();
-        this.comments = new ArrayList<>();
+        this.sequence = sequence;
+        this.createdAt = createdAt;
+        this.likes = ConcurrentHashMap.newKeySet();
+        this.likeCount = new LongAdder();
+        this.comments = new CommentThread();
     }
 
-    public void addLike(String userId) {
-        if (!likes.contains(userId)) {
-            likes.add(userId);
+    public boolean addLike(String userId) {
+        if (likes.add(userId)) {
+            likeCount.increment();
+            return true;
         }
+        return false;
     }
 
     public void addComment(Comment comment) {
         comments.add(comment);
     }
 
-    public void removeLike(String userId) {
-        likes.remove(userId);
+    public boolean removeLike(String userId) {
+        if (likes.remove(userId)) {
+            likeCount.decrement();
+            return true;
+        }
+        return false;
     }
 
-    public void removeComment(String commentId) {
-        comments.removeIf(comment -> comment.id.equals(commentId));
+    public boolean removeComment(String commentId) {
+        return comments.remove(commentId);
     }
 
     public List<Comment> getComments() {
-        return comments;
+        return comments.getAll();
+    }
+
+    public CommentPage getCommentPage(String cursor, int limit) {
+        return comments.page(cursor, limit);
+    }
+
+    public int getCommentCount() {
+        return comments.size();
     }
 
     public List<String> getLikes() {
-        return likes;
+        return new ArrayList<>(likes);
+    }
+
+    public long getLikeCount() {
+        return likeCount.sum();
+    }
+
+    public boolean isLikedBy(String userId) {
+        return likes.contains(userId);
     }
 
     public String getContent() {
@@ -133,6 +406,92 @@ class FriendRequest {
     }
 }
 
+class FriendRequestStore {
+    // Only pending requests are kept, processed ones are purged as soon as they are accepted or rejected
+    private final Map<String, FriendRequest> pendingById = new ConcurrentHashMap<>();
+    private final Map<String, FriendRequest> pendingByPair = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, FriendRequest>> pendingByRecipient = new ConcurrentHashMap<>();
+
+    private static String pairKey(String fromUserId, String toUserId) {
+        return fromUserId + "|" + toUserId;
+    }
+
+    // Returns the already pending request for the pair instead of creating a duplicate
+    public FriendRequest add(String requestId, String fromUserId, String toUserId) {
+        FriendRequest request = new FriendRequest(requestId, fromUserId, toUserId);
+        FriendRequest existing = pendingByPair.putIfAbsent(pairKey(fromUserId, toUserId), request);
+        if (existing != null) {
+            return existing;
+        }
+        pendingById.put(requestId, request);
+        Map<String, FriendRequest> inbox = pendingByRecipient.computeIfAbsent(toUserId, k -> new LinkedHashMap<>());
+        synchronized (inbox) {
+            inbox.put(requestId, request);
+        }
+        return request;
+    }
+
+    public FriendRequest getPending(String requestId) {
+        return pendingById.get(requestId);
+    }
+
+    public FriendRequest getPending(String fromUserId, String toUserId) {
+        return pendingByPair.get(pairKey(fromUserId, toUserId));
+    }
+
+    // Oldest first
+    public List<FriendRequest> getPendingFor(String toUserId) {
+        Map<String, FriendRequest> inbox = pendingByRecipient.get(toUserId);
+        if (inbox == null) {
+            return new ArrayList<>();
+        }
+        synchronized (inbox) {
+            return new ArrayList<>(inbox.values());
+        }
+    }
+
+    // Removes the request if it is still pending and addressed to the user, null otherwise
+    public FriendRequest take(String toUserId, String requestId) {
+        FriendRequest request = pendingById.get(requestId);
+        if (request == null || !request.toUserId.equals(toUserId) || !pendingById.remove(requestId, request)) {
+            return null;
+        }
+        pendingByPair.remove(pairKey(request.fromUserId, request.toUserId), request);
+        Map<String, FriendRequest> inbox = pendingByRecipient.get(toUserId);
+        if (inbox != null) {
+            synchronized (inbox) {
+                inbox.remove(requestId);
+            }
+        }
+        return request;
+    }
+
+    public List<FriendRequest> takeAll(String toUserId) {
+        List<FriendRequest> taken = new ArrayList<>();
+        for (FriendRequest request : getPendingFor(toUserId)) {
+            if (take(toUserId, request.id) != null) {
+                taken.add(request);
+            }
+        }
+        return taken;
+    }
+
+    // Drops pending requests in both directions, e.g. once the users became friends another way
+    public void purgePair(String userId, String otherUserId) {
+        FriendRequest request = pendingByPair.get(pairKey(userId, otherUserId));
+        if (request != null) {
+            take(otherUserId, request.id);
+        }
+        request = pendingByPair.get(pairKey(otherUserId, userId));
+        if (request != null) {
+            take(userId, request.id);
+        }
+    }
+
+    public int pendingCount() {
+        return pendingById.size();
+    }
+}
 
 enum NotificationType {
     FRIEND_REQUEST,
@@ -162,220 +521,3764 @@ class Notification {
     }
 }
 
-class SocialNetworkService {
-    Map<String, User> users = new HashMap<>();
-    Map<String, User> usersByEmail = new HashMap<>();
-    Map<String, Post> postsMap = new HashMap<>();
+interface NotificationColdStore {
+    void archive(Notification notification);
 
-    public User register(String name, String email, String password) {
-        if(usersByEmail.containsKey(email)) {
-            throw new IllegalArgumentException("User with this ID already exists.");
-        }
-        String hashed = hash(password);
-        String id = UUID.randomUUID().toString();
-        User user = new User(id, name, email, hashed);
-        System.out.println("User registered with ID: " + id);
-        users.put(id, user);
-        usersByEmail.put(email, user);
-        return user;
-    }
+    Notification find(String userId, String notificationId);
 
-    private String hash(String s) {
-        return "hashed_" + s;
-    }
+    void markAsRead(Notification notification);
 
-    public User login(String email, String password) {
-        User user = usersByEmail.get(email);
-        if (user == null || !user.hashedPassword.equals(hash(password))) {
-            System.out.println("Login failed: Invalid email or password");
-            return null;
-        }
-        System.out.println("Login successful for user: " + user.name);
-        return user;
-    }
+    int markAllAsRead(String userId);
 
-    public User getUserById(String userId) {
-        return users.get(userId);
-    }
+    // Newest first
+    List<Notification> getUnread(String userId);
+}
 
-    public void sendFriendRequest(String fromUserId, String toUserId) {
-        User fromUser = users.get(fromUserId);
-        User toUser = users.get(toUserId);
-        if (fromUser != null && toUser != null) {
-            String requestId = UUID.randomUUID().toString();
-            FriendRequest request = new FriendRequest(requestId, fromUserId, toUserId);
-            toUser.recieveFriendRequest(request);
-            System.out.println("Friend request sent from " + fromUser.name + " to " + toUser.name);
-        } else {
-            throw new IllegalArgumentException("Invalid user IDs.");
-        }
+class InMemoryNotificationColdStore implements NotificationColdStore {
+    static final int DEFAULT_READ_CAPACITY = 100_000;
+
+    // Read notifications across all users, the oldest archived one is dropped once over capacity
+    private final Map<String, Notification> read;
+    // Unread notifications are kept until read, so they never drop out of a user's unread count
+    private final Map<String, Map<String, Notification>> unreadByUser = new ConcurrentHashMap<>();
+
+    public InMemoryNotificationColdStore() {
+        this(DEFAULT_READ_CAPACITY);
     }
 
-    public void acceptFriendRequest(String userId, String requestId) {
-        User user = users.get(userId);
-        if (user != null) {
-            for (FriendRequest request : user.friendRequests) {
-                if (request.id.equals(requestId) && request.status.equals("pending")) {
-                    request.accept();
-                    addFriend(userId, request.fromUserId);
-                    System.out.println("Friend request accepted from " + request.fromUserId);
-                    return;
-                }
+    public InMemoryNotificationColdStore(int readCapacity) {
+        this.read = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Notification> eldest) {
+                return size() > readCapacity;
             }
-            throw new IllegalArgumentException("Friend request not found or already processed.");
-        } else {
-            throw new IllegalArgumentException("User not found.");
-        }
+        };
     }
 
-    public void addFriend(String userId, String friendId) {
-        User user = users.get(userId);
-        User friend = users.get(friendId);
-        if (user != null && friend != null) {
-            user.addFriend(friend);
-            friend.addFriend(user);
+    @Override
+    public void archive(Notification notification) {
+        if (notification.read) {
+            synchronized (read) {
+                read.put(notification.id, notification);
+            }
         } else {
-            throw new IllegalArgumentException("User or friend not found.");
+            unreadByUser.computeIfAbsent(notification.userId, id -> new LinkedHashMap<>())
+                    .put(notification.id, notification);
         }
     }
 
-    public List<User> getFriends(String userId) {
-        User user = users.get(userId);
-        if (user != null && user.friends != null) {
-            List<User> friendsList = new ArrayList<>();
-            for (User friend : user.friends) {
-                if (friend != null) {
-                    friendsList.add(friend);
-                }
+    @Override
+    public Notification find(String userId, String notificationId) {
+        Map<String, Notification> unread = unreadByUser.get(userId);
+        Notification notification = unread == null ? null : unread.get(notificationId);
+        if (notification == null) {
+            synchronized (read) {
+                notification = read.get(notificationId);
             }
-            return friendsList;
         }
-        return new ArrayList<>();
+        return notification != null && notification.userId.equals(userId) ? notification : null;
     }
 
-    public void setProfilePicture(String userId, String url) {
-        User user = users.get(userId);
-        if (user != null) {
-            user.setProfilePicture(url);
-        } else {
-            throw new IllegalArgumentException("User not found.");
+    @Override
+    public void markAsRead(Notification notification) {
+        Map<String, Notification> unread = unreadByUser.get(notification.userId);
+        if (unread != null && unread.remove(notification.id) != null) {
+            notification.markAsRead();
+            archive(notification);
         }
     }
 
-    public Post createPost(String userId, String content) {
-        User user = users.get(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("User not found.");
+    @Override
+    public int markAllAsRead(String userId) {
+        Map<String, Notification> unread = unreadByUser.remove(userId);
+        if (unread == null) {
+            return 0;
         }
-        String postId = UUID.randomUUID().toString();
-        Post post = new Post(postId, userId, content);
-        user.posts.put(postId, post);
-        postsMap.put(postId, post);
-        return post;
+        for (Notification notification : unread.values()) {
+            notification.markAsRead();
+            archive(notification);
+        }
+        return unread.size();
     }
 
-    public void likePost(String userId, String postId) {
-        User user = users.get(userId);
-        Post post = postsMap.get(postId);
-        if (user == null || post == null) {
-            throw new IllegalArgumentException("User or post not found.");
+    @Override
+    public List<Notification> getUnread(String userId) {
+        Map<String, Notification> unread = unreadByUser.get(userId);
+        if (unread == null) {
+            return Collections.emptyList();
         }
-        post.addLike(userId);
+        List<Notification> newestFirst = new ArrayList<>(unread.values());
+        Collections.reverse(newestFirst);
+        return newestFirst;
     }
+}
 
-    public void commentOnPost(String userId, String postId, String content) {
-        User user = users.get(userId);
-        Post post = postsMap.get(postId);
-        if (user == null || post == null) {
-            throw new IllegalArgumentException("User or post not found.");
-        }
-        String commentId = UUID.randomUUID().toString();
-        Comment comment = new Comment(commentId, userId, postId, content);
-        post.addComment(comment);
+class NotificationInbox {
+    static final int DEFAULT_CAPACITY = 200;
+
+    // Ring of the most recent notifications, older ones are evicted to the cold store
+    private final Notification[] ring;
+    private final Map<String, Notification> index = new HashMap<>();
+    private final NotificationColdStore coldStore;
+    private int head; // next write position
+    private int size;
+    private int unreadCount; // unread notifications still in the ring
+    private int archivedUnread; // unread notifications evicted to the cold store
+
+    public NotificationInbox(int capacity, NotificationColdStore coldStore) {
+        this.ring = new Notification[capacity];
+        this.coldStore = coldStore;
     }
 
-    public void removeLike(String userId, String postId) {
-        User user = users.get(userId);
-        Post post = postsMap.get(postId);
-        if (user == null || post == null) {
-            throw new IllegalArgumentException("User or post not found.");
+    public synchronized void add(Notification notification) {
+        Notification evicted = ring[head];
+        if (evicted != null) {
+            index.remove(evicted.id);
+            if (!evicted.read) {
+                unreadCount--;
+                archivedUnread++;
+            }
+            coldStore.archive(evicted);
+        }
+        ring[head] = notification;
+        head = (head + 1) % ring.length;
+        size = Math.min(size + 1, ring.length);
+        index.put(notification.id, notification);
+        if (!notification.read) {
+            unreadCount++;
         }
-        post.removeLike(userId);
     }
 
-    public void removeComment(String userId, String postId, String commentId) {
-        User user = users.get(userId);
-        Post post = postsMap.get(postId);
-        if (user == null || post == null) {
-            throw new IllegalArgumentException("User or post not found.");
+    // Returns null if the notification is unknown to both tiers
+    public synchronized Notification markAsRead(String userId, String notificationId) {
+        Notification notification = index.get(notificationId);
+        if (notification != null) {
+            if (!notification.read) {
+                notification.markAsRead();
+                unreadCount--;
+            }
+            return notification;
+        }
+        notification = coldStore.find(userId, notificationId);
+        if (notification != null && !notification.read) {
+            coldStore.markAsRead(notification);
+            archivedUnread--;
         }
-        post.removeComment(commentId);
+        return notification;
     }
 
-    public List<Post> getPostsByUser(String userId) {
-        User user = users.get(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("User not found.");
+    public synchronized int markAllAsRead(String userId) {
+        int marked = unreadCount;
+        for (int i = 1; i <= size && unreadCount > 0; i++) {
+            Notification notification = ring[(head - i + ring.length) % ring.length];
+            if (!notification.read) {
+                notification.markAsRead();
+                unreadCount--;
+            }
         }
-        return user.getPosts();
+        if (archivedUnread > 0) {
+            marked += coldStore.markAllAsRead(userId);
+            archivedUnread = 0;
+        }
+        return marked;
     }
 
-    public List<User> getAllUsers() {
-        return new ArrayList<>(users.values());
+    public synchronized int getUnreadCount() {
+        return unreadCount + archivedUnread;
     }
 
-    public List<Post> getNewsFeed(String userId) {
-        User user = users.get(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("User not found.");
+    // Newest first, the ring before the archived ones
+    public synchronized List<Notification> getUnread(String userId) {
+        List<Notification> unread = new ArrayList<>(unreadCount + archivedUnread);
+        for (int i = 1; i <= size && unread.size() < unreadCount; i++) {
+            Notification notification = ring[(head - i + ring.length) % ring.length];
+            if (!notification.read) {
+                unread.add(notification);
+            }
         }
-        List<Post> newsFeed = new ArrayList<>();
-        for (User friend : user.getFriends()) {
-            newsFeed.addAll(friend.getPosts());
+        if (archivedUnread > 0) {
+            unread.addAll(coldStore.getUnread(userId));
         }
-        return newsFeed;
+        return unread;
     }
 
-    public void sendNotification(String userId, NotificationType type, String message) {
-        String notificationId = UUID.randomUUID().toString();
-        Notification notification = new Notification(notificationId, userId, type, message);
-        User user = users.get(userId);
-        if (user != null) {
-            user.addNotification(notification);
-            System.out.println("Notification sent to " + user.name + ": " + message);
-        } else {
-            throw new IllegalArgumentException("User not found.");
-        }
+    public synchronized int size() {
+        return size;
     }
+}
 
-    public List<Notification> getNotifications(String userId) {
-        User user = users.get(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("User not found.");
-        }
-        return user.notifications.stream().filter(n -> !n.read).toList();
+class NotificationEvent {
+    final String targetUserId;
+    final NotificationType type;
+    final String actorId;
+    final String actorName;
+    final String subjectId; // post ID for likes and comments
+
+    public NotificationEvent(String targetUserId, NotificationType type, String actorId, String actorName, String subjectId) {
+        this.targetUserId = targetUserId;
+        this.type = type;
+        this.actorId = actorId;
+        this.actorName = actorName;
+        this.subjectId = subjectId;
     }
 
-    public void markNotificationAsRead(String userId, String notificationId) {
-        User user = users.get(userId);
-        if (user == null) {
-            throw new IllegalArgumentException("User not found.");
-        }
-        for (Notification notification : user.notifications) {
-            if (notification.id.equals(notificationId)) {
-                notification.markAsRead();
-                System.out.println("Notification marked as read: " + notification.message);
-                return;
-            }
-        }
-        throw new IllegalArgumentException("Notification not found.");
+    String coalescingKey() {
+        return targetUserId + "|" + type + "|" + subjectId;
     }
 }
 
+interface NotificationDelivery {
+    void deliver(String userId, NotificationType type, String message);
+}
 
-public class SocialNetworkApp {
-    public static void main(String[] args) {
-        SocialNetworkService network = new SocialNetworkService();
+class NotificationDispatcher {
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final BlockingQueue<NotificationEvent> queue;
+    private final NotificationDelivery delivery;
+    private final long windowMillis;
+    private final int batchSize;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread consumer;
+
+    public NotificationDispatcher(NotificationDelivery delivery) {
+        this(delivery, DEFAULT_QUEUE_CAPACITY, DEFAULT_WINDOW_MILLIS);
+    }
+
+    public NotificationDispatcher(NotificationDelivery delivery, int queueCapacity, long windowMillis) {
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.delivery = delivery;
+        this.windowMillis = windowMillis;
+        this.batchSize = Math.max(1, queueCapacity / 4);
+        this.consumer = new Thread(this::run, "notification-dispatcher");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    // Never blocks or delivers on the caller: when the consumer is behind the event is dropped and counted,
+    // so likes and comments cost the same however many notifications are in flight
+    public void submit(NotificationEvent event) {
+        submitted.incrementAndGet();
+        if (!queue.offer(event)) {
+            submitted.decrementAndGet();
+            dropped.incrementAndGet();
+        }
+    }
+
+    public void submitAll(Collection<NotificationEvent> events) {
+        for (NotificationEvent event : events) {
+            submit(event);
+        }
+    }
+
+    // Blocks until everything submitted so far has been delivered
+    public void flush() {
+        long target = submitted.get();
+        while (completed.get() < target) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Stops the consumer, call flush() first if queued events still matter
+    public void close() {
+        consumer.interrupt();
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<NotificationEvent> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+                // Hold the window open so a burst on one post collapses into one notification
+                long deadline = System.currentTimeMillis() + windowMillis;
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    NotificationEvent next = queue.poll(remaining, TimeUnit.MILLISECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    queue.drainTo(batch, batchSize - batch.size());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            deliverBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void deliverBatch(List<NotificationEvent> batch) {
+        Map<String, List<NotificationEvent>> grouped = new LinkedHashMap<>();
+        for (NotificationEvent event : batch) {
+            grouped.computeIfAbsent(event.coalescingKey(), k -> new ArrayList<>()).add(event);
+        }
+        for (List<NotificationEvent> group : grouped.values()) {
+            NotificationEvent first = group.get(0);
+            try {
+                delivery.deliver(first.targetUserId, first.type, coalescedMessage(group));
+            } catch (RuntimeException e) {
+                System.out.println("Notification delivery failed for " + first.targetUserId + ": " + e.getMessage());
+            }
+        }
+        completed.addAndGet(batch.size());
+    }
+
+    private static String coalescedMessage(List<NotificationEvent> group) {
+        Set<String> actors = new LinkedHashSet<>();
+        for (NotificationEvent event : group) {
+            actors.add(event.actorId);
+        }
+        NotificationEvent first = group.get(0);
+        String who = actors.size() == 1 ? first.actorName : first.actorName + " and " + (actors.size() - 1) + " others";
+        switch (first.type) {
+            case LIKE:
+                return who + " liked your post";
+            case COMMENT:
+                return who + " commented on your post";
+            case MENTION:
+                return who + " mentioned you";
+            case FRIEND_REQUEST:
+                return who + " sent you a friend request";
+            case FRIEND_REQUEST_ACCEPTED:
+                return who + " accepted your friend request";
+            default:
+                return who;
+        }
+    }
+}
+
+class PostLog {
+    // Append-only, sorted by (createdAt, sequence) because the service hands out monotonic values
+    private String[] ids = new String[4];
+    private long[] createdAt = new long[4];
+    private long[] sequences = new long[4];
+    private int size;
+
+    public synchronized void append(String postId, long createdAtMillis, long sequence) {
+        if (size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+            createdAt = Arrays.copyOf(createdAt, size * 2);
+            sequences = Arrays.copyOf(sequences, size * 2);
+        }
+        ids[size] = postId;
+        createdAt[size] = createdAtMillis;
+        sequences[size] = sequence;
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized String idAt(int index) {
+        return ids[index];
+    }
+
+    public synchronized long createdAtAt(int index) {
+        return createdAt[index];
+    }
+
+    public synchronized long sequenceAt(int index) {
+        return sequences[index];
+    }
+
+    public synchronized long lastCreatedAt() {
+        return size == 0 ? Long.MIN_VALUE : createdAt[size - 1];
+    }
+
+    // Index of the newest entry strictly older than the given key, or -1
+    public synchronized int indexBefore(long createdAtMillis, long sequence) {
+        int low = 0;
+        int high = size - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            boolean older = createdAt[mid] < createdAtMillis
+                    || (createdAt[mid] == createdAtMillis && sequences[mid] < sequence);
+            if (older) {
+                result = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+}
+
+class FeedPage {
+    final List<Post> posts;
+    final String nextCursor; // null once the feed is exhausted
+
+    public FeedPage(List<Post> posts, String nextCursor) {
+        this.posts = posts;
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Post> getPosts() {
+        return posts;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
+
+class Timeline {
+    // Bounded ring of post IDs kept in (createdAt, sequence) order, once full the oldest entry is dropped
+    private String[] ids;
+    private long[] createdAt;
+    private long[] sequences;
+    private int start; // physical slot of the oldest entry
+    private int size;
+
+    public Timeline(int capacity) {
+        this.ids = new String[capacity];
+        this.createdAt = new long[capacity];
+        this.sequences = new long[capacity];
+    }
+
+    // O(1) for the usual in-order fan-out push, late arrivals shift into place
+    public synchronized void push(String postId, long createdAtMillis, long sequence) {
+        int position = size;
+        while (position > 0 && compare(position - 1, createdAtMillis, sequence) > 0) {
+            position--;
+        }
+        if (position > 0 && compare(position - 1, createdAtMillis, sequence) == 0) {
+            return; // already present
+        }
+        if (size == ids.length) {
+            if (position == 0) {
+                return; // older than everything kept
+            }
+            start = (start + 1) % ids.length;
+            size--;
+            position--;
+        }
+        for (int i = size; i > position; i--) {
+            move(i - 1, i);
+        }
+        set(position, postId, createdAtMillis, sequence);
+        size++;
+    }
+
+    // Merges an ascending run of older posts (a new friend's backfill) in one O(capacity + n) pass
+    public synchronized void merge(String[] postIds, long[] createdAts, long[] postSequences) {
+        int capacity = ids.length;
+        String[] mergedIds = new String[capacity];
+        long[] mergedCreatedAt = new long[capacity];
+        long[] mergedSequences = new long[capacity];
+        int mine = size - 1;
+        int theirs = postIds.length - 1;
+        int out = capacity;
+        // Walk both runs from the newest end and keep the newest capacity entries
+        while (out > 0 && (mine >= 0 || theirs >= 0)) {
+            int order = mine < 0 ? -1 : theirs < 0 ? 1 : compare(mine, createdAts[theirs], postSequences[theirs]);
+            out--;
+            if (order >= 0) {
+                int slot = physical(mine);
+                mergedIds[out] = ids[slot];
+                mergedCreatedAt[out] = createdAt[slot];
+                mergedSequences[out] = sequences[slot];
+                mine--;
+                if (order == 0) {
+                    theirs--; // same post on both sides
+                }
+            } else {
+                mergedIds[out] = postIds[theirs];
+                mergedCreatedAt[out] = createdAts[theirs];
+                mergedSequences[out] = postSequences[theirs];
+                theirs--;
+            }
+        }
+        ids = mergedIds;
+        createdAt = mergedCreatedAt;
+        sequences = mergedSequences;
+        start = out;
+        size = capacity - out;
+    }
+
+    // Newest first
+    public synchronized List<String> latest(int limit) {
+        int count = Math.min(limit, size);
+        List<String> result = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            result.add(ids[physical(size - i)]);
+        }
+        return result;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    private int physical(int index) {
+        return (start + index) % ids.length;
+    }
+
+    private int compare(int index, long createdAtMillis, long sequence) {
+        int slot = physical(index);
+        int order = Long.compare(createdAt[slot], createdAtMillis);
+        return order != 0 ? order : Long.compare(sequences[slot], sequence);
+    }
+
+    private void move(int from, int to) {
+        int source = physical(from);
+        set(to, ids[source], createdAt[source], sequences[source]);
+    }
+
+    private void set(int index, String postId, long createdAtMillis, long sequence) {
+        int slot = physical(index);
+        ids[slot] = postId;
+        createdAt[slot] = createdAtMillis;
+        sequences[slot] = sequence;
+    }
+}
+
+class LongHashSet {
+    // Open addressing with linear probing, 0 is reserved as the empty slot
+    private long[] slots = new long[16];
+    private int size;
+
+    public boolean add(long key) {
+        if ((size + 1) * 2 > slots.length) {
+            resize();
+        }
+        int index = indexFor(key, slots.length);
+        while (slots[index] != 0) {
+            if (slots[index] == key) {
+                return false;
+            }
+            index = (index + 1) & (slots.length - 1);
+        }
+        slots[index] = key;
+        size++;
+        return true;
+    }
+
+    public boolean contains(long key) {
+        int index = indexFor(key, slots.length);
+        while (slots[index] != 0) {
+            if (slots[index] == key) {
+                return true;
+            }
+            index = (index + 1) & (slots.length - 1);
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        for (long key : old) {
+            if (key != 0) {
+                int index = indexFor(key, slots.length);
+                while (slots[index] != 0) {
+                    index = (index + 1) & (slots.length - 1);
+                }
+                slots[index] = key;
+            }
+        }
+    }
+
+    private static int indexFor(long key, int length) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (length - 1);
+    }
+}
+
+class FriendSuggestion {
+    final String userId;
+    final int mutualFriends;
+
+    public FriendSuggestion(String userId, int mutualFriends) {
+        this.userId = userId;
+        this.mutualFriends = mutualFriends;
+    }
+}
+
+class FriendGraph {
+    private static final int PARALLEL_THRESHOLD = 10_000; // friend-of-friend edges
+
+    private final Map<String, Integer> indexById = new HashMap<>();
+    private final List<String> idsByIndex = new ArrayList<>();
+    private int[][] adjacency = new int[16][]; // sorted neighbour arrays, trimmed by degree
+    private int[] degree = new int[16];
+    private final LongHashSet edges = new LongHashSet();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public int intern(String userId) {
+        lock.writeLock().lock();
+        try {
+            return internLocked(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Returns false if the two users were already friends
+    public boolean addEdge(String userId, String friendId) {
+        lock.writeLock().lock();
+        try {
+            int a = internLocked(userId);
+            int b = internLocked(friendId);
+            if (a == b || !edges.add(edgeKey(a, b))) {
+                return false;
+            }
+            insertSorted(a, b);
+            insertSorted(b, a);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean areFriends(String userId, String friendId) {
+        lock.readLock().lock();
+        try {
+            Integer a = indexById.get(userId);
+            Integer b = indexById.get(friendId);
+            return a != null && b != null && edges.contains(edgeKey(a, b));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getDegree(String userId) {
+        lock.readLock().lock();
+        try {
+            Integer a = indexById.get(userId);
+            return a == null ? 0 : degree[a];
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> mutualFriends(String userId, String otherUserId) {
+        lock.readLock().lock();
+        try {
+            Integer a = indexById.get(userId);
+            Integer b = indexById.get(otherUserId);
+            List<String> result = new ArrayList<>();
+            if (a == null || b == null) {
+                return result;
+            }
+            // Both arrays are sorted, so a linear merge finds the intersection
+            int[] left = adjacency[a];
+            int[] right = adjacency[b];
+            int i = 0;
+            int j = 0;
+            while (i < degree[a] && j < degree[b]) {
+                if (left[i] < right[j]) {
+                    i++;
+                } else if (left[i] > right[j]) {
+                    j++;
+                } else {
+                    result.add(idsByIndex.get(left[i]));
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Friends of friends ranked by number of mutual friends
+    public List<FriendSuggestion> suggestFriends(String userId, int limit) {
+        lock.readLock().lock();
+        try {
+            Integer boxed = indexById.get(userId);
+            if (boxed == null) {
+                return new ArrayList<>();
+            }
+            int user = boxed;
+            int[] friends = Arrays.copyOf(adjacency[user], degree[user]);
+            long work = 0;
+            for (int friend : friends) {
+                work += degree[friend];
+            }
+            IntStream candidates = IntStream.of(friends);
+            if (work >= PARALLEL_THRESHOLD) {
+                candidates = candidates.parallel();
+            }
+            Map<Integer, Long> mutualCounts = candidates
+                    .flatMap(friend -> Arrays.stream(adjacency[friend], 0, degree[friend]))
+                    .filter(candidate -> candidate != user && !edges.contains(edgeKey(user, candidate)))
+                    .boxed()
+                    .collect(Collectors.groupingByConcurrent(candidate -> candidate, Collectors.counting()));
+            return mutualCounts.entrySet().stream()
+                    .sorted(Map.Entry.<Integer, Long>comparingByValue().reversed()
+                            .thenComparing(Map.Entry.comparingByKey()))
+                    .limit(limit)
+                    .map(entry -> new FriendSuggestion(idsByIndex.get(entry.getKey()), entry.getValue().intValue()))
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Bulk load path: appends unsorted, then sorts each touched adjacency array once
+    public void addEdges(String[] from, String[] to) {
+        lock.writeLock().lock();
+        try {
+            BitSet touched = new BitSet();
+            for (int i = 0; i < from.length; i++) {
+                int a = internLocked(from[i]);
+                int b = internLocked(to[i]);
+                if (a == b || !edges.add(edgeKey(a, b))) {
+                    continue;
+                }
+                append(a, b);
+                append(b, a);
+                touched.set(a);
+                touched.set(b);
+            }
+            touched.stream().parallel().forEach(node -> Arrays.sort(adjacency[node], 0, degree[node]));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<String> friendsOf(String userId) {
+        lock.readLock().lock();
+        try {
+            Integer node = indexById.get(userId);
+            List<String> result = new ArrayList<>();
+            if (node == null) {
+                return result;
+            }
+            for (int i = 0; i < degree[node]; i++) {
+                result.add(idsByIndex.get(adjacency[node][i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void append(int node, int neighbour) {
+        if (degree[node] == adjacency[node].length) {
+            adjacency[node] = Arrays.copyOf(adjacency[node], degree[node] * 2);
+        }
+        adjacency[node][degree[node]++] = neighbour;
+    }
+
+    private int internLocked(String userId) {
+        Integer existing = indexById.get(userId);
+        if (existing != null) {
+            return existing;
+        }
+        int index = idsByIndex.size();
+        idsByIndex.add(userId);
+        indexById.put(userId, index);
+        if (index == adjacency.length) {
+            adjacency = Arrays.copyOf(adjacency, index * 2);
+            degree = Arrays.copyOf(degree, index * 2);
+        }
+        adjacency[index] = new int[4];
+        return index;
+    }
+
+    private void insertSorted(int node, int neighbour) {
+        int[] neighbours = adjacency[node];
+        int count = degree[node];
+        if (count == neighbours.length) {
+            neighbours = Arrays.copyOf(neighbours, count * 2);
+            adjacency[node] = neighbours;
+        }
+        int position = Arrays.binarySearch(neighbours, 0, count, neighbour);
+        position = -(position + 1);
+        System.arraycopy(neighbours, position, neighbours, position + 1, count - position);
+        neighbours[position] = neighbour;
+        degree[node] = count + 1;
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+}
+
+enum SearchMode {
+    AND,
+    OR
+}
+
+class PostingList {
+    // Ascending doc IDs, delta + varint encoded
+    private byte[] data = new byte[8];
+    private int length;
+    private int count;
+    private int lastDoc = -1;
+
+    public void add(int doc) {
+        if (doc <= lastDoc) {
+            return; // token repeated inside the same post
+        }
+        int delta = doc - lastDoc;
+        lastDoc = doc;
+        count++;
+        while ((delta & ~0x7F) != 0) {
+            append((byte) ((delta & 0x7F) | 0x80));
+            delta >>>= 7;
+        }
+        append((byte) delta);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public int[] decode() {
+        int[] docs = new int[count];
+        int doc = -1;
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            doc += delta;
+            docs[i] = doc;
+        }
+        return docs;
+    }
+
+    private void append(byte b) {
+        if (length == data.length) {
+            data = Arrays.copyOf(data, length * 2);
+        }
+        data[length++] = b;
+    }
+}
+
+class PostSearchIndex {
+    private final Map<String, Integer> docByPostId = new HashMap<>();
+    private final List<String> postIdByDoc = new ArrayList<>();
+    private final Map<String, PostingList> postings = new HashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                current.append(Character.toLowerCase(c));
+            } else if (current.length() > 0) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    public void index(String postId, String content) {
+        List<String> tokens = tokenize(content);
+        lock.writeLock().lock();
+        try {
+            if (docByPostId.containsKey(postId)) {
+                return;
+            }
+            int doc = postIdByDoc.size();
+            postIdByDoc.add(postId);
+            docByPostId.put(postId, doc);
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, k -> new PostingList()).add(doc);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Matching post IDs, newest first
+    public List<String> search(String query, SearchMode mode, int limit) {
+        List<String> tokens = tokenize(query);
+        List<String> result = new ArrayList<>();
+        if (tokens.isEmpty()) {
+            return result;
+        }
+        int[] docs;
+        lock.readLock().lock();
+        try {
+            List<int[]> lists = new ArrayList<>();
+            for (String token : new LinkedHashSet<>(tokens)) {
+                PostingList list = postings.get(token);
+                if (list == null) {
+                    if (mode == SearchMode.AND) {
+                        return result;
+                    }
+                    continue;
+                }
+                lists.add(list.decode());
+            }
+            if (lists.isEmpty()) {
+                return result;
+            }
+            if (mode == SearchMode.AND) {
+                // Start from the rarest term so every intersection shrinks quickly
+                lists.sort(Comparator.comparingInt(list -> list.length));
+                docs = lists.get(0);
+                for (int i = 1; i < lists.size() && docs.length > 0; i++) {
+                    docs = intersect(docs, lists.get(i));
+                }
+            } else {
+                docs = lists.get(0);
+                for (int i = 1; i < lists.size(); i++) {
+                    docs = union(docs, lists.get(i));
+                }
+            }
+            for (int i = docs.length - 1; i >= 0 && result.size() < limit; i--) {
+                result.add(postIdByDoc.get(docs[i]));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int[] intersect(int[] left, int[] right) {
+        int[] out = new int[Math.min(left.length, right.length)];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < left.length && j < right.length) {
+            if (left[i] < right[j]) {
+                i++;
+            } else if (left[i] > right[j]) {
+                j++;
+            } else {
+                out[n++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] union(int[] left, int[] right) {
+        int[] out = new int[left.length + right.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < left.length || j < right.length) {
+            if (j == right.length || (i < left.length && left[i] < right[j])) {
+                out[n++] = left[i++];
+            } else if (i == left.length || right[j] < left[i]) {
+                out[n++] = right[j++];
+            } else {
+                out[n++] = left[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+}
+
+class UserNameTrie {
+    static final int CACHED_SUGGESTIONS = 10;
+
+    private static class TrieNode {
+        final Map<Character, TrieNode> children = new HashMap<>();
+        final List<String> topUserIds = new ArrayList<>(); // first few users below this prefix
+        final List<String> userIds = new ArrayList<>(); // users whose name or name word ends here
+    }
+
+    private static final String AMBIGUOUS = ""; // handle shared by several users, never resolved
+
+    private final TrieNode root = new TrieNode();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, String> handles = new ConcurrentHashMap<>(); // canonical handle -> the one user who has it
+
+    public static String handleOf(String name) {
+        return String.join("", PostSearchIndex.tokenize(name));
+    }
+
+    // Indexes the full name, its handle form and each word, so "smi" and "@alicesmith" find "Alice Smith"
+    public void insert(String name, String userId) {
+        Set<String> keys = new LinkedHashSet<>();
+        List<String> words = PostSearchIndex.tokenize(name);
+        keys.add(name.toLowerCase());
+        keys.add(String.join("", words));
+        keys.addAll(words);
+        String handle = handleOf(name);
+        if (!handle.isEmpty()) {
+            handles.merge(handle, userId, (existing, added) -> existing.equals(added) ? existing : AMBIGUOUS);
+        }
+        lock.writeLock().lock();
+        try {
+            for (String key : keys) {
+                TrieNode node = root;
+                for (int i = 0; i < key.length(); i++) {
+                    node = node.children.computeIfAbsent(key.charAt(i), k -> new TrieNode());
+                    if (node.topUserIds.size() < CACHED_SUGGESTIONS && !node.topUserIds.contains(userId)) {
+                        node.topUserIds.add(userId);
+                    }
+                }
+                if (!node.userIds.contains(userId)) {
+                    node.userIds.add(userId);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<String> findByPrefix(String prefix, int limit) {
+        lock.readLock().lock();
+        try {
+            TrieNode node = find(prefix.toLowerCase());
+            if (node == null) {
+                return new ArrayList<>();
+            }
+            if (limit <= node.topUserIds.size() || node.topUserIds.size() < CACHED_SUGGESTIONS) {
+                // Typeahead path: answered from the node without walking the subtree
+                return new ArrayList<>(node.topUserIds.subList(0, Math.min(limit, node.topUserIds.size())));
+            }
+            Set<String> result = new LinkedHashSet<>();
+            collect(node, result, limit);
+            return new ArrayList<>(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Mentions resolve only against whole handles, and only when exactly one user has that handle
+    public String resolveHandle(String handle) {
+        String userId = handles.get(handle.toLowerCase());
+        return userId == null || AMBIGUOUS.equals(userId) ? null : userId;
+    }
+
+    private TrieNode find(String key) {
+        TrieNode node = root;
+        for (int i = 0; i < key.length() && node != null; i++) {
+            node = node.children.get(key.charAt(i));
+        }
+        return node;
+    }
+
+    private void collect(TrieNode node, Set<String> result, int limit) {
+        for (String userId : node.userIds) {
+            if (result.size() >= limit) {
+                return;
+            }
+            result.add(userId);
+        }
+        for (TrieNode child : node.children.values()) {
+            if (result.size() >= limit) {
+                return;
+            }
+            collect(child, result, limit);
+        }
+    }
+}
+
+class MentionProcessor {
+    static final int DEFAULT_QUEUE_CAPACITY = 10_000;
+    private static final int BATCH_SIZE = 256;
+    private static final Pattern MENTION = Pattern.compile("@([\\p{L}\\p{N}_]+)");
+
+    private static class MentionJob {
+        final String authorId;
+        final String authorName;
+        final String postId;
+        final String text;
+
+        MentionJob(String authorId, String authorName, String postId, String text) {
+            this.authorId = authorId;
+            this.authorName = authorName;
+            this.postId = postId;
+            this.text = text;
+        }
+    }
+
+    private final BlockingQueue<MentionJob> queue;
+    private final UserNameTrie nameIndex;
+    private final NotificationDispatcher dispatcher;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final Thread worker;
+
+    public MentionProcessor(UserNameTrie nameIndex, NotificationDispatcher dispatcher) {
+        this.queue = new ArrayBlockingQueue<>(DEFAULT_QUEUE_CAPACITY);
+        this.nameIndex = nameIndex;
+        this.dispatcher = dispatcher;
+        this.worker = new Thread(this::run, "mention-processor");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public static List<String> extractHandles(String text) {
+        Set<String> handles = new LinkedHashSet<>();
+        Matcher matcher = MENTION.matcher(text);
+        while (matcher.find()) {
+            handles.add(matcher.group(1).toLowerCase());
+        }
+        return new ArrayList<>(handles);
+    }
+
+    // Cheap for the writer: parsing, resolution and delivery all happen on the worker
+    public void submit(String authorId, String authorName, String postId, String text) {
+        if (text.indexOf('@') < 0) {
+            return;
+        }
+        MentionJob job = new MentionJob(authorId, authorName, postId, text);
+        submitted.incrementAndGet();
+        if (!queue.offer(job)) {
+            process(List.of(job));
+        }
+    }
+
+    public void flush() {
+        long target = submitted.get();
+        while (completed.get() < target) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Stops the worker, call flush() first if queued mentions still matter
+    public void close() {
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<MentionJob> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            process(batch);
+            batch.clear();
+        }
+    }
+
+    private void process(List<MentionJob> batch) {
+        List<NotificationEvent> events = new ArrayList<>();
+        for (MentionJob job : batch) {
+            Set<String> targets = new LinkedHashSet<>();
+            for (String handle : extractHandles(job.text)) {
+                String target = nameIndex.resolveHandle(handle);
+                if (target != null) {
+                    targets.add(target);
+                }
+            }
+            targets.remove(job.authorId);
+            for (String target : targets) {
+                events.add(new NotificationEvent(target, NotificationType.MENTION, job.authorId, job.authorName, job.postId));
+            }
+        }
+        dispatcher.submitAll(events);
+        completed.addAndGet(batch.size());
+    }
+}
+
+class CountMinSketch {
+    private final int width;
+    private final AtomicLongArray[] rows;
+    private final long[] seeds; // one per row, so keys that collide in one row rarely collide in the others
+
+    public CountMinSketch(int depth, int width) {
+        this.width = width;
+        this.rows = new AtomicLongArray[depth];
+        this.seeds = new long[depth];
+        SplittableRandom random = new SplittableRandom(0x5EED_CAFEL);
+        for (int i = 0; i < depth; i++) {
+            rows[i] = new AtomicLongArray(width);
+            seeds[i] = random.nextLong();
+        }
+    }
+
+    public void add(String key, long count) {
+        for (int i = 0; i < rows.length; i++) {
+            rows[i].addAndGet(bucket(key, seeds[i]), count);
+        }
+    }
+
+    // Never underestimates; overestimates by at most ~2N/width with high probability
+    public long estimate(String key) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < rows.length; i++) {
+            min = Math.min(min, rows[i].get(bucket(key, seeds[i])));
+        }
+        return min;
+    }
+
+    public void clear() {
+        for (AtomicLongArray row : rows) {
+            for (int i = 0; i < width; i++) {
+                row.set(i, 0);
+            }
+        }
+    }
+
+    // Seeded FNV-1a over the characters with a murmur finalizer, independent per seed
+    private int bucket(String key, long seed) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001B3L;
+        }
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) ((h & Long.MAX_VALUE) % width);
+    }
+}
+
+class TrendingPost {
+    final String postId;
+    final double score;
+
+    public TrendingPost(String postId, double score) {
+        this.postId = postId;
+        this.score = score;
+    }
+}
+
+class TrendingEngine {
+    static final int DEFAULT_TOP_K = 50;
+    static final long DEFAULT_BUCKET_MILLIS = 10 * 60 * 1000;
+    static final int DEFAULT_BUCKETS = 6;
+    static final double BUCKET_DECAY = 0.5; // each older bucket counts half as much
+
+    // One sketch per time bucket; memory is fixed no matter how many posts exist
+    private final CountMinSketch[] buckets;
+    private final long bucketMillis;
+    private final int topK;
+    private final LongSupplier clock;
+    // Current score of every top-K member, updated without locking on each like
+    private final Map<String, Double> topScores = new ConcurrentHashMap<>();
+    // Min-heap over the members, guarded by this. Keys may lag the map (scores only grow
+    // between rotations), stale keys are refreshed lazily when the minimum is inspected
+    private final PriorityQueue<TrendingPost> weakestFirst = new PriorityQueue<>(Comparator.comparingDouble(post -> post.score));
+    private volatile double threshold = Double.NEGATIVE_INFINITY; // a non-member must beat this to enter
+    private volatile long currentEpoch;
+
+    public TrendingEngine() {
+        this(DEFAULT_TOP_K, DEFAULT_BUCKETS, DEFAULT_BUCKET_MILLIS, System::currentTimeMillis);
+    }
+
+    public TrendingEngine(int topK, int bucketCount, long bucketMillis, LongSupplier clock) {
+        this.buckets = new CountMinSketch[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new CountMinSketch(4, 4096);
+        }
+        this.bucketMillis = bucketMillis;
+        this.topK = topK;
+        this.clock = clock;
+        this.currentEpoch = clock.getAsLong() / bucketMillis;
+    }
+
+    // Lock-free unless the window rotates or a post climbs past the current K-th score
+    public void record(String postId, long weight) {
+        long epoch = clock.getAsLong() / bucketMillis;
+        if (epoch != currentEpoch) {
+            rotate(epoch);
+        }
+        buckets[(int) Math.floorMod(epoch, (long) buckets.length)].add(postId, weight);
+        double score = score(postId, epoch);
+        if (topScores.replace(postId, score) != null || score <= threshold) {
+            return;
+        }
+        synchronized (this) {
+            offer(postId, score);
+        }
+    }
+
+    // Highest score first
+    public List<TrendingPost> getTrending(int limit) {
+        long epoch = clock.getAsLong() / bucketMillis;
+        if (epoch != currentEpoch) {
+            rotate(epoch);
+        }
+        List<TrendingPost> result = new ArrayList<>(topScores.size());
+        for (Map.Entry<String, Double> entry : topScores.entrySet()) {
+            result.add(new TrendingPost(entry.getKey(), entry.getValue()));
+        }
+        result.sort(Comparator.comparingDouble((TrendingPost post) -> post.score).reversed());
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    private double score(String postId, long epoch) {
+        double score = 0;
+        double weight = 1;
+        for (int age = 0; age < buckets.length; age++) {
+            score += weight * buckets[(int) Math.floorMod(epoch - age, (long) buckets.length)].estimate(postId);
+            weight *= BUCKET_DECAY;
+        }
+        return score;
+    }
+
+    private void offer(String postId, double score) {
+        if (topScores.containsKey(postId)) {
+            topScores.put(postId, score);
+            return;
+        }
+        if (weakestFirst.size() < topK) {
+            weakestFirst.add(new TrendingPost(postId, score));
+            topScores.put(postId, score);
+            updateThreshold();
+            return;
+        }
+        TrendingPost weakest = weakestFirst.peek();
+        Double current = topScores.get(weakest.postId);
+        while (current != null && current != weakest.score) {
+            // Stale key: re-insert with the member's real score and look again
+            weakestFirst.poll();
+            weakestFirst.add(new TrendingPost(weakest.postId, current));
+            weakest = weakestFirst.peek();
+            current = topScores.get(weakest.postId);
+        }
+        if (score > weakest.score) {
+            weakestFirst.poll();
+            topScores.remove(weakest.postId);
+            weakestFirst.add(new TrendingPost(postId, score));
+            topScores.put(postId, score);
+        }
+        updateThreshold();
+    }
+
+    private void updateThreshold() {
+        threshold = weakestFirst.size() < topK ? Double.NEGATIVE_INFINITY : weakestFirst.peek().score;
+    }
+
+    private synchronized void rotate(long epoch) {
+        if (epoch == currentEpoch) {
+            return; // another thread already rotated
+        }
+        // Clear the buckets that slid out of the window, then re-score the survivors
+        long steps = Math.min(epoch - currentEpoch, buckets.length);
+        for (long i = 1; i <= steps; i++) {
+            buckets[(int) Math.floorMod(currentEpoch + i, (long) buckets.length)].clear();
+        }
+        currentEpoch = epoch;
+        weakestFirst.clear();
+        Iterator<Map.Entry<String, Double>> entries = topScores.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Double> entry = entries.next();
+            double score = score(entry.getKey(), epoch);
+            if (score == 0) {
+                entries.remove();
+            } else {
+                entry.setValue(score);
+                weakestFirst.add(new TrendingPost(entry.getKey(), score));
+            }
+        }
+        updateThreshold();
+    }
+}
+
+class AffinityStore {
+    // viewer -> author interaction weight, maintained incrementally from likes and comments
+    private final Map<String, LongAdder> scores = new ConcurrentHashMap<>();
+
+    private static String pairKey(String viewerId, String authorId) {
+        return viewerId + "|" + authorId;
+    }
+
+    public void record(String viewerId, String authorId, long weight) {
+        if (viewerId.equals(authorId)) {
+            return;
+        }
+        scores.computeIfAbsent(pairKey(viewerId, authorId), k -> new LongAdder()).add(weight);
+    }
+
+    public long get(String viewerId, String authorId) {
+        LongAdder score = scores.get(pairKey(viewerId, authorId));
+        return score == null ? 0 : score.sum();
+    }
+}
+
+class FeedRanker {
+    static final double AFFINITY_WEIGHT = 1.0;
+    static final double ENGAGEMENT_WEIGHT = 0.5;
+    static final double RECENCY_WEIGHT = 2.0;
+    static final double RECENCY_HALF_LIFE_HOURS = 24;
+    static final int PARALLEL_THRESHOLD = 512; // below this the fork-join overhead dominates
+
+    private final AffinityStore affinity;
+
+    public FeedRanker(AffinityStore affinity) {
+        this.affinity = affinity;
+    }
+
+    public double score(String viewerId, Post post, long nowMillis) {
+        double ageHours = Math.max(0, nowMillis - post.createdAt) / 3_600_000.0;
+        double recency = Math.pow(0.5, ageHours / RECENCY_HALF_LIFE_HOURS);
+        double engagement = Math.log1p(post.getLikeCount() + 2.0 * post.getCommentCount());
+        return AFFINITY_WEIGHT * Math.log1p(affinity.get(viewerId, post.userId))
+                + ENGAGEMENT_WEIGHT * engagement
+                + RECENCY_WEIGHT * recency;
+    }
+
+    public List<Post> rank(String viewerId, List<Post> candidates, int limit) {
+        long now = System.currentTimeMillis();
+        Stream<Post> stream = candidates.size() >= PARALLEL_THRESHOLD ? candidates.parallelStream() : candidates.stream();
+        // Score once per candidate, then sort on the cached score
+        return stream
+                .map(post -> new AbstractMap.SimpleImmutableEntry<>(post, score(viewerId, post, now)))
+                .sorted(Map.Entry.<Post, Double>comparingByValue().reversed())
+                .limit(limit)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+}
+
+enum SocialEventType {
+    USER_REGISTERED,
+    POST_CREATED,
+    POST_LIKED,
+    COMMENT_ADDED,
+    FRIENDSHIP_CREATED
+}
+
+class SocialEvent {
+    final SocialEventType type;
+    final String actorId; // user who triggered the change
+    final String subjectId; // post, comment or friend ID depending on the type
+    final String postId; // post the event belongs to, null for user and friendship events
+    final long timestamp;
+
+    public SocialEvent(SocialEventType type, String actorId, String subjectId) {
+        this(type, actorId, subjectId, null);
+    }
+
+    public SocialEvent(SocialEventType type, String actorId, String subjectId, String postId) {
+        this.type = type;
+        this.actorId = actorId;
+        this.subjectId = subjectId;
+        this.postId = postId;
+        this.timestamp = System.currentTimeMillis();
+    }
+}
+
+class BatchingSubscriber implements Flow.Subscriber<SocialEvent> {
+    private final int batchSize;
+    private final Consumer<List<SocialEvent>> consumer;
+    private final List<SocialEvent> buffer = new ArrayList<>();
+    // Guards the buffer and is held through consumer.accept, so the delivery thread and the
+    // flusher timer can never hand the consumer two batches at once or out of order
+    private final ReentrantLock deliveryLock = new ReentrantLock();
+    private Flow.Subscription subscription;
+
+    public BatchingSubscriber(int batchSize, Consumer<List<SocialEvent>> consumer) {
+        this.batchSize = batchSize;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(batchSize);
+    }
+
+    @Override
+    public void onNext(SocialEvent event) {
+        deliveryLock.lock();
+        try {
+            buffer.add(event);
+            if (buffer.size() >= batchSize) {
+                deliver(drain());
+            }
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        System.out.println("Event subscriber failed: " + throwable.getMessage());
+    }
+
+    @Override
+    public void onComplete() {
+        deliveryLock.lock();
+        try {
+            deliverPending();
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    // Called on a timer so a quiet stream still delivers its partial batch. If a delivery
+    // is already running the tick is skipped, one slow consumer can't stall the shared timer
+    public void flush() {
+        if (!deliveryLock.tryLock()) {
+            return;
+        }
+        try {
+            deliverPending();
+        } finally {
+            deliveryLock.unlock();
+        }
+    }
+
+    private void deliverPending() {
+        if (!buffer.isEmpty()) {
+            deliver(drain());
+        }
+    }
+
+    private List<SocialEvent> drain() {
+        List<SocialEvent> batch = new ArrayList<>(buffer);
+        buffer.clear();
+        return batch;
+    }
+
+    private void deliver(List<SocialEvent> batch) {
+        consumer.accept(batch);
+        // Only ask for more once this batch is handled; that is the backpressure signal
+        subscription.request(batch.size());
+    }
+}
+
+class SocialEventBus {
+    static final int DEFAULT_BUFFER_CAPACITY = 8192;
+    static final long DEFAULT_LINGER_MILLIS = 50;
+
+    private final SubmissionPublisher<SocialEvent> publisher;
+    private final List<BatchingSubscriber> batchingSubscribers = new CopyOnWriteArrayList<>();
+    private final LongAdder dropped = new LongAdder();
+    private final ExecutorService deliveryExecutor;
+    private final ScheduledExecutorService flusher;
+
+    public SocialEventBus() {
+        this(DEFAULT_BUFFER_CAPACITY, DEFAULT_LINGER_MILLIS);
+    }
+
+    public SocialEventBus(int bufferCapacity, long lingerMillis) {
+        // Each subscriber gets its own bounded buffer inside the publisher, and a slow
+        // subscriber only ties up its own delivery thread, not a shared pool worker
+        this.deliveryExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "event-bus-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = new SubmissionPublisher<>(deliveryExecutor, bufferCapacity);
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "event-bus-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleAtFixedRate(() -> batchingSubscribers.forEach(BatchingSubscriber::flush),
+                lingerMillis, lingerMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Never blocks: if a subscriber's buffer is full the event is dropped for that subscriber only
+    public void publish(SocialEvent event) {
+        if (!publisher.isClosed()) {
+            publisher.offer(event, (subscriber, rejected) -> {
+                dropped.increment();
+                return false;
+            });
+        }
+    }
+
+    public void subscribe(Flow.Subscriber<SocialEvent> subscriber) {
+        publisher.subscribe(subscriber);
+    }
+
+    public BatchingSubscriber subscribeBatched(int batchSize, Consumer<List<SocialEvent>> consumer) {
+        BatchingSubscriber subscriber = new BatchingSubscriber(batchSize, consumer);
+        batchingSubscribers.add(subscriber);
+        publisher.subscribe(subscriber);
+        return subscriber;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public void close() {
+        publisher.close();
+        flusher.shutdown();
+        deliveryExecutor.shutdown();
+    }
+}
+
+class SocialIdGenerator {
+    // 63-bit IDs: 41 bits of milliseconds since EPOCH, 22 low bits from a shared counter
+    static final long EPOCH = 1704067200000L; // 2024-01-01T00:00:00Z
+    static final int SEQUENCE_BITS = 22;
+    static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    static final int BLOCK_SIZE = 64;
+    // ASCII-ordered, so fixed-width strings sort the same way as the numbers
+    private static final char[] ALPHABET = "-0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz".toCharArray();
+    static final int STRING_LENGTH = 11;
+
+    private static class Block {
+        long millis = -1;
+        long next;
+        long end;
+    }
+
+    private final AtomicLong counter = new AtomicLong();
+    private final ThreadLocal<Block> blocks = ThreadLocal.withInitial(Block::new);
+
+    public long nextId() {
+        Block block = blocks.get();
+        long millis = Math.max(System.currentTimeMillis() - EPOCH, block.millis);
+        // A thread claims a fresh block per millisecond, so it touches the shared counter
+        // at most once per BLOCK_SIZE IDs and counters never repeat within one millisecond
+        if (millis != block.millis || block.next == block.end) {
+            block.next = counter.getAndAdd(BLOCK_SIZE);
+            block.end = block.next + BLOCK_SIZE;
+            block.millis = millis;
+        }
+        return (millis << SEQUENCE_BITS) | (block.next++ & SEQUENCE_MASK);
+    }
+
+    public String nextIdString() {
+        return encode(nextId());
+    }
+
+    public static String encode(long id) {
+        char[] chars = new char[STRING_LENGTH];
+        for (int i = STRING_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 63)];
+            id >>>= 6;
+        }
+        return new String(chars);
+    }
+
+    public static long decode(String id) {
+        long value = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            int digit = Arrays.binarySearch(ALPHABET, c);
+            if (digit < 0) {
+                throw new IllegalArgumentException("Invalid ID: " + id);
+            }
+            value = (value << 6) | digit;
+        }
+        return value;
+    }
+
+    public static long timestampOf(String id) {
+        return (decode(id) >>> SEQUENCE_BITS) + EPOCH;
+    }
+}
+
+class StripedLock {
+    private final ReentrantLock[] stripes;
+
+    public StripedLock(int stripeCount) {
+        // Power of two so the stripe can be picked with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock get(String key) {
+        return stripes[indexOf(key)];
+    }
+
+    public ReentrantLock get(int stripe) {
+        return stripes[stripe];
+    }
+
+    public int indexOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (stripes.length - 1);
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+}
+
+class PostSegment {
+    // Append-only file of [length][record] entries. Writers reserve space with a CAS and
+    // write positionally, so appends never queue behind each other or behind readers
+    final Path path;
+    final int index; // position in the store's segment list, part of every cold location
+    private final FileChannel channel;
+    private final long capacity;
+    private final AtomicLong reserved = new AtomicLong(); // end of the reserved region, -1 - end once full
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dead = new AtomicLong(); // bytes of records superseded by a newer copy
+    private volatile MappedByteBuffer mapped;
+
+    public PostSegment(Path path, int index, long capacity) throws IOException {
+        this.path = path;
+        this.index = index;
+        this.capacity = capacity;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // Returns the record's offset, or -1 if the segment is full and the caller should roll over
+    public long tryAppend(byte[] record) throws IOException {
+        int length = Integer.BYTES + record.length;
+        long offset;
+        do {
+            offset = reserved.get();
+            if (offset < 0) {
+                return -1;
+            }
+            // An empty segment takes any record, so oversized posts still fit somewhere
+            if (offset > 0 && offset + length > capacity) {
+                if (reserved.compareAndSet(offset, -1 - offset)) {
+                    sealIfComplete();
+                }
+                return -1;
+            }
+        } while (!reserved.compareAndSet(offset, offset + length));
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(record.length).put(record).flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        written.addAndGet(length);
+        sealIfComplete();
+        return offset;
+    }
+
+    public byte[] read(long offset) throws IOException {
+        MappedByteBuffer view = mapped;
+        if (view != null) {
+            ByteBuffer record = view.duplicate();
+            record.position((int) offset);
+            byte[] bytes = new byte[record.getInt()];
+            record.get(bytes);
+            return bytes;
+        }
+        // Still being written: positional reads until the segment is sealed
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+        while (header.hasRemaining()) {
+            channel.read(header, offset + header.position());
+        }
+        header.flip();
+        ByteBuffer body = ByteBuffer.allocate(header.getInt());
+        while (body.hasRemaining()) {
+            channel.read(body, offset + Integer.BYTES + body.position());
+        }
+        return body.array();
+    }
+
+    public long size() {
+        long end = reserved.get();
+        return end < 0 ? -1 - end : end;
+    }
+
+    public boolean isSealed() {
+        return reserved.get() < 0;
+    }
+
+    public long deadBytes() {
+        return dead.get();
+    }
+
+    // Returns the segment's dead bytes including this record
+    public long markDead(long offset) throws IOException {
+        MappedByteBuffer view = mapped;
+        int length;
+        if (view != null) {
+            length = view.getInt((int) offset);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(Integer.BYTES);
+            while (header.hasRemaining()) {
+                channel.read(header, offset + header.position());
+            }
+            length = header.getInt(0);
+        }
+        return dead.addAndGet(Integer.BYTES + length);
+    }
+
+    // Maps the file once it is full and the last in-flight write has landed
+    private void sealIfComplete() throws IOException {
+        long end = reserved.get();
+        if (end < 0 && written.get() == -1 - end) {
+            synchronized (this) {
+                if (mapped == null) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, -1 - end);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
+
+class TieredPostStore {
+    static final int DEFAULT_HOT_CAPACITY = 100_000;
+    static final long DEFAULT_SEGMENT_BYTES = 64L << 20;
+    private static final int MAX_SHARDS = 16;
+
+    private static class HotEntry {
+        final Post post;
+        final long coldLocation; // copy on disk this entry was promoted from, -1 if none
+        volatile boolean referenced = true; // CLOCK bit, set on every hit
+        volatile boolean dirty; // changed since coldLocation was written, set under the stripe read lock
+
+        HotEntry(Post post, long coldLocation) {
+            this.post = post;
+            this.coldLocation = coldLocation;
+            this.dirty = coldLocation < 0;
+        }
+    }
+
+    // One CLOCK ring per shard: hits only flip a bit, the shard lock is taken on insert and eviction
+    private static class HotShard {
+        final Map<String, HotEntry> entries = new ConcurrentHashMap<>();
+        final ArrayDeque<HotEntry> clock = new ArrayDeque<>(); // guarded by this
+    }
+
+    private final int shardCapacity;
+    private final long segmentBytes;
+    private final HotShard[] shards;
+    // Changes to a post hold its stripe's read lock, evicting it needs the write lock,
+    // so a like can never land on a copy that is already being spilled
+    private final ReentrantReadWriteLock[] stripes = new ReentrantReadWriteLock[256];
+    private final Map<String, byte[]> spilling = new ConcurrentHashMap<>(); // encoded, not yet on disk
+    private final Map<String, Long> coldIndex = new ConcurrentHashMap<>(); // postId -> segment << 40 | offset
+    private final List<PostSegment> segments = new CopyOnWriteArrayList<>();
+    private final Object rollover = new Object();
+    private volatile PostSegment active;
+    private volatile Path directory; // created on the first spill
+    private volatile boolean ownsDirectory;
+
+    public TieredPostStore() {
+        this(DEFAULT_HOT_CAPACITY, DEFAULT_SEGMENT_BYTES, null);
+    }
+
+    public TieredPostStore(int hotCapacity, long segmentBytes, Path directory) {
+        int shardCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_SHARDS, hotCapacity)));
+        this.shards = new HotShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new HotShard();
+        }
+        this.shardCapacity = Math.max(1, (hotCapacity + shardCount - 1) / shardCount);
+        this.segmentBytes = segmentBytes;
+        this.directory = directory;
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    public void put(Post post) {
+        HotEntry entry = new HotEntry(post, -1);
+        ReentrantReadWriteLock lock = stripe(post.id);
+        lock.writeLock().lock();
+        try {
+            shardOf(post.id).entries.put(post.id, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        admit(shardOf(post.id), entry);
+    }
+
+    // Reads through to the cold tier and promotes the post back into the cache.
+    // The returned post is fine to read; changes must go through update
+    public Post get(String postId) {
+        HotShard shard = shardOf(postId);
+        while (true) {
+            HotEntry entry = shard.entries.get(postId);
+            if (entry != null) {
+                entry.referenced = true;
+                return entry.post;
+            }
+            byte[] pending = spilling.get(postId);
+            Long location = pending == null ? coldIndex.get(postId) : null;
+            if (pending == null && location == null) {
+                if (!contains(postId)) {
+                    return null;
+                }
+                continue; // moved between tiers while we looked
+            }
+            // Decode without holding anything, then check nobody moved the post meanwhile
+            Post post = pending != null ? decodeUnchecked(pending) : readCold(location);
+            if (post == null) {
+                continue; // its segment was reclaimed, so the location is stale
+            }
+            HotEntry promoted = null;
+            ReentrantReadWriteLock lock = stripe(postId);
+            lock.writeLock().lock();
+            try {
+                if (shard.entries.get(postId) == null && spilling.get(postId) == pending
+                        && (pending != null || location.equals(coldIndex.get(postId)))) {
+                    // A clean promotion keeps its disk copy, so evicting it again costs no write
+                    promoted = new HotEntry(post, pending == null ? location : -1);
+                    if (pending == null) {
+                        coldIndex.remove(postId);
+                    }
+                    shard.entries.put(postId, promoted);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            if (promoted != null) {
+                admit(shard, promoted);
+                return post;
+            }
+        }
+    }
+
+    // Applies a change to the resident copy while holding off its eviction
+    public <R> R update(String postId, Function<Post, R> change) {
+        HotShard shard = shardOf(postId);
+        ReentrantReadWriteLock lock = stripe(postId);
+        while (true) {
+            Post post = get(postId);
+            if (post == null) {
+                throw new IllegalArgumentException("Post not found.");
+            }
+            lock.readLock().lock();
+            try {
+                HotEntry entry = shard.entries.get(postId);
+                if (entry != null && entry.post == post) {
+                    entry.dirty = true;
+                    return change.apply(post);
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Evicted between get and lock, promote it again
+        }
+    }
+
+    // Like get, but leaves the cache untouched, for scans such as snapshots
+    public Post peek(String postId) {
+        while (true) {
+            HotEntry entry = shardOf(postId).entries.get(postId);
+            if (entry != null) {
+                return entry.post;
+            }
+            byte[] pending = spilling.get(postId);
+            if (pending != null) {
+                return decodeUnchecked(pending);
+            }
+            Long location = coldIndex.get(postId);
+            if (location == null) {
+                if (!contains(postId)) {
+                    return null;
+                }
+                continue;
+            }
+            Post post = readCold(location);
+            if (post != null) {
+                return post;
+            }
+            // Raced with a rewrite that reclaimed the segment, look the post up again
+        }
+    }
+
+    // Every move between tiers holds the stripe write lock, so this never misses a post in flight
+    public boolean contains(String postId) {
+        ReentrantReadWriteLock lock = stripe(postId);
+        lock.readLock().lock();
+        try {
+            return shardOf(postId).entries.containsKey(postId) || spilling.containsKey(postId)
+                    || coldIndex.containsKey(postId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public List<String> allPostIds() {
+        Set<String> ids = new LinkedHashSet<>(coldIndex.keySet());
+        ids.addAll(spilling.keySet());
+        for (HotShard shard : shards) {
+            ids.addAll(shard.entries.keySet());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    public int hotSize() {
+        int size = 0;
+        for (HotShard shard : shards) {
+            size += shard.entries.size();
+        }
+        return size;
+    }
+
+    public int coldSize() {
+        return coldIndex.size();
+    }
+
+    // Bytes held by segment files, superseded records included until their segment is reclaimed
+    public long diskBytes() {
+        long bytes = 0;
+        for (PostSegment segment : segments) {
+            if (segment != null) {
+                bytes += segment.size();
+            }
+        }
+        return bytes;
+    }
+
+    public long deadBytes() {
+        long bytes = 0;
+        for (PostSegment segment : segments) {
+            if (segment != null) {
+                bytes += segment.deadBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // Segment files only hold spilled copies, so a temporary directory is removed with them
+    public void close() throws IOException {
+        synchronized (rollover) {
+            for (PostSegment segment : segments) {
+                if (segment == null) {
+                    continue;
+                }
+                segment.close();
+                if (ownsDirectory) {
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+            if (ownsDirectory && directory != null) {
+                Files.deleteIfExists(directory);
+            }
+        }
+    }
+
+    private HotShard shardOf(String postId) {
+        return shards[(postId.hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private ReentrantReadWriteLock stripe(String postId) {
+        int h = postId.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (stripes.length - 1)];
+    }
+
+    private void admit(HotShard shard, HotEntry entry) {
+        List<HotEntry> victims = new ArrayList<>();
+        List<Long> superseded = new ArrayList<>();
+        synchronized (shard) {
+            shard.clock.addLast(entry);
+            // Bounded sweep: if every candidate is busy the shard stays over capacity until the next insert
+            int budget = 2 * shard.clock.size();
+            while (shard.entries.size() > shardCapacity && budget-- > 0 && !shard.clock.isEmpty()) {
+                HotEntry candidate = shard.clock.pollFirst();
+                if (shard.entries.get(candidate.post.id) != candidate) {
+                    continue; // replaced or already gone
+                }
+                if (candidate.referenced) {
+                    candidate.referenced = false;
+                    shard.clock.addLast(candidate);
+                    continue;
+                }
+                if (!evict(shard, candidate)) {
+                    shard.clock.addLast(candidate);
+                    continue;
+                }
+                if (candidate.dirty) {
+                    victims.add(candidate);
+                    if (candidate.coldLocation >= 0) {
+                        superseded.add(candidate.coldLocation);
+                    }
+                }
+            }
+        }
+        // Disk writes happen after every lock is released
+        for (HotEntry victim : victims) {
+            finishSpill(victim.post.id);
+        }
+        for (long location : superseded) {
+            release(location);
+        }
+    }
+
+    // Moves the post from the hot tier back to its unchanged disk copy, or to the spilling map
+    // when it is new or changed; fails if a change is in progress
+    private boolean evict(HotShard shard, HotEntry candidate) {
+        ReentrantReadWriteLock lock = stripe(candidate.post.id);
+        if (!lock.writeLock().tryLock()) {
+            return false;
+        }
+        try {
+            if (candidate.dirty) {
+                spilling.put(candidate.post.id, encodeUnchecked(candidate.post));
+            } else {
+                coldIndex.put(candidate.post.id, candidate.coldLocation);
+            }
+            shard.entries.remove(candidate.post.id, candidate);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void finishSpill(String postId) {
+        byte[] record = spilling.get(postId);
+        if (record == null) {
+            return;
+        }
+        long location = append(record);
+        Long previous = null;
+        boolean indexed = false;
+        ReentrantReadWriteLock lock = stripe(postId);
+        lock.writeLock().lock();
+        try {
+            // A newer eviction of the same post may have replaced the record, its location wins
+            if (spilling.get(postId) == record) {
+                previous = coldIndex.put(postId, location);
+                spilling.remove(postId);
+                indexed = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if (!indexed) {
+            release(location);
+        } else if (previous != null) {
+            release(previous);
+        }
+    }
+
+    // Counts a superseded record as dead and deletes its segment once nothing in it is live
+    private void release(long location) {
+        int index = (int) (location >>> 40);
+        PostSegment segment = segments.get(index);
+        if (segment == null) {
+            return;
+        }
+        try {
+            long dead = segment.markDead(location & ((1L << 40) - 1));
+            if (!segment.isSealed() || dead < segment.size()) {
+                return;
+            }
+            synchronized (rollover) {
+                if (segments.get(index) == segment) {
+                    segments.set(index, null);
+                    segment.close();
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long append(byte[] record) {
+        try {
+            while (true) {
+                PostSegment segment = active;
+                if (segment != null) {
+                    long offset = segment.tryAppend(record);
+                    if (offset >= 0) {
+                        return ((long) segment.index << 40) | offset;
+                    }
+                }
+                synchronized (rollover) {
+                    if (active == segment) {
+                        if (directory == null) {
+                            directory = Files.createTempDirectory("post-segments");
+                            ownsDirectory = true;
+                        }
+                        int index = segments.size();
+                        PostSegment next = new PostSegment(directory.resolve(String.format("segment-%06d.dat", index)), index, segmentBytes);
+                        segments.add(next);
+                        active = next;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Returns null if the segment was reclaimed meanwhile, the caller looks the post up again
+    private Post readCold(long location) {
+        PostSegment segment = segments.get((int) (location >>> 40));
+        if (segment == null) {
+            return null;
+        }
+        try {
+            return decode(segment.read(location & ((1L << 40) - 1)));
+        } catch (ClosedChannelException e) {
+            return null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encodeUnchecked(Post post) {
+        try {
+            return encode(post);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Post decodeUnchecked(byte[] record) {
+        try {
+            return decode(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] encode(Post post) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(post.id);
+        out.writeUTF(post.userId);
+        writeString(out, post.content);
+        out.writeLong(post.sequence);
+        out.writeLong(post.createdAt);
+        List<String> likes = post.getLikes();
+        out.writeInt(likes.size());
+        for (String userId : likes) {
+            out.writeUTF(userId);
+        }
+        List<Comment> comments = post.getComments();
+        out.writeInt(comments.size());
+        for (Comment comment : comments) {
+            out.writeUTF(comment.id);
+            out.writeUTF(comment.userId);
+            writeString(out, comment.content);
+            out.writeLong(comment.createdAt);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Post decode(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        String id = in.readUTF();
+        String userId = in.readUTF();
+        String content = readString(in);
+        Post post = new Post(id, userId, content, in.readLong(), in.readLong());
+        int likes = in.readInt();
+        for (int i = 0; i < likes; i++) {
+            post.addLike(in.readUTF());
+        }
+        int comments = in.readInt();
+        for (int i = 0; i < comments; i++) {
+            post.addComment(new Comment(in.readUTF(), in.readUTF(), id, readString(in), in.readLong()));
+        }
+        return post;
+    }
+
+    // writeUTF caps strings at 64KB, post and comment bodies can be longer
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
+
+class SnapshotData {
+    String[] userIds;
+    String[] userNames;
+    String[] userEmails;
+    String[] userPasswords;
+    String[] userPictures;
+
+    // Posts are kept in publish order so post logs can be rebuilt by appending
+    String[] postIds;
+    int[] postAuthors; // index into the user columns
+    String[] postContents;
+    long[] postSequences;
+    long[] postCreatedAt;
+
+    int[] likePosts;
+    int[] likeUsers;
+
+    String[] commentIds;
+    int[] commentPosts;
+    int[] commentUsers;
+    String[] commentContents;
+    long[] commentCreatedAt;
+
+    int[] edgeFrom;
+    int[] edgeTo;
+}
+
+class SocialGraphSnapshot {
+    // Layout: header, string dictionary, then users, posts, likes, comments and edges as column blocks
+    static final int MAGIC = 0x534E5353; // "SNSS"
+    static final int VERSION = 1;
+
+    public static void write(SnapshotData data, Path path) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int[] userIds = refs(dictionary, data.userIds);
+        int[] userNames = refs(dictionary, data.userNames);
+        int[] userEmails = refs(dictionary, data.userEmails);
+        int[] userPasswords = refs(dictionary, data.userPasswords);
+        int[] userPictures = refs(dictionary, data.userPictures);
+        int[] postIds = refs(dictionary, data.postIds);
+        int[] postContents = refs(dictionary, data.postContents);
+        int[] commentIds = refs(dictionary, data.commentIds);
+        int[] commentContents = refs(dictionary, data.commentContents);
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(dictionary.size());
+            for (String value : dictionary.keySet()) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(userIds.length);
+            writeInts(out, userIds);
+            writeInts(out, userNames);
+            writeInts(out, userEmails);
+            writeInts(out, userPasswords);
+            writeInts(out, userPictures);
+
+            out.writeInt(postIds.length);
+            writeInts(out, postIds);
+            writeInts(out, data.postAuthors);
+            writeInts(out, postContents);
+            writeLongs(out, data.postSequences);
+            writeLongs(out, data.postCreatedAt);
+
+            out.writeInt(data.likePosts.length);
+            writeInts(out, data.likePosts);
+            writeInts(out, data.likeUsers);
+
+            out.writeInt(commentIds.length);
+            writeInts(out, commentIds);
+            writeInts(out, data.commentPosts);
+            writeInts(out, data.commentUsers);
+            writeInts(out, commentContents);
+            writeLongs(out, data.commentCreatedAt);
+
+            out.writeInt(data.edgeFrom.length);
+            writeInts(out, data.edgeFrom);
+            writeInts(out, data.edgeTo);
+        }
+        // Readers only ever see a complete snapshot
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static SnapshotData read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than a single mapping: " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a social graph snapshot");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            String[] dictionary = new String[buffer.getInt()];
+            for (int i = 0; i < dictionary.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            SnapshotData data = new SnapshotData();
+            int users = buffer.getInt();
+            data.userIds = strings(buffer, dictionary, users);
+            data.userNames = strings(buffer, dictionary, users);
+            data.userEmails = strings(buffer, dictionary, users);
+            data.userPasswords = strings(buffer, dictionary, users);
+            data.userPictures = strings(buffer, dictionary, users);
+
+            int posts = buffer.getInt();
+            data.postIds = strings(buffer, dictionary, posts);
+            data.postAuthors = ints(buffer, posts);
+            data.postContents = strings(buffer, dictionary, posts);
+            data.postSequences = longs(buffer, posts);
+            data.postCreatedAt = longs(buffer, posts);
+
+            int likes = buffer.getInt();
+            data.likePosts = ints(buffer, likes);
+            data.likeUsers = ints(buffer, likes);
+
+            int comments = buffer.getInt();
+            data.commentIds = strings(buffer, dictionary, comments);
+            data.commentPosts = ints(buffer, comments);
+            data.commentUsers = ints(buffer, comments);
+            data.commentContents = strings(buffer, dictionary, comments);
+            data.commentCreatedAt = longs(buffer, comments);
+
+            int edges = buffer.getInt();
+            data.edgeFrom = ints(buffer, edges);
+            data.edgeTo = ints(buffer, edges);
+            return data;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated snapshot " + path, e);
+        }
+    }
+
+    private static int[] refs(Map<String, Integer> dictionary, String[] values) {
+        int[] refs = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            refs[i] = dictionary.computeIfAbsent(values[i], k -> dictionary.size());
+        }
+        return refs;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        for (long value : values) {
+            out.writeLong(value);
+        }
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static long[] longs(ByteBuffer buffer, int count) {
+        long[] values = new long[count];
+        buffer.asLongBuffer().get(values);
+        buffer.position(buffer.position() + count * Long.BYTES);
+        return values;
+    }
+
+    private static String[] strings(ByteBuffer buffer, String[] dictionary, int count) {
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = dictionary[buffer.getInt()];
+        }
+        return values;
+    }
+}
+
+class SocialNetworkService {
+    static final int DEFAULT_TIMELINE_CAPACITY = 500;
+    static final int DEFAULT_CELEBRITY_THRESHOLD = 10_000;
+
+    Map<String, User> users = new ConcurrentHashMap<>();
+    Map<String, User> usersByEmail = new ConcurrentHashMap<>();
+    TieredPostStore postStore;
+    Map<String, Timeline> timelines = new ConcurrentHashMap<>();
+    Map<String, Timeline> celebrityPosts = new ConcurrentHashMap<>(); // recent posts of users above the threshold
+    Map<String, Set<String>> celebrityFriends = new ConcurrentHashMap<>(); // userId -> friends above the threshold
+    StripedLock userLocks = new StripedLock(256); // serializes writes to one user's post log
+    FriendGraph friendGraph = new FriendGraph();
+    FriendRequestStore friendRequests = new FriendRequestStore();
+    NotificationColdStore notificationColdStore = new InMemoryNotificationColdStore();
+    NotificationDispatcher notificationDispatcher = new NotificationDispatcher(this::sendNotification);
+    PostSearchIndex postSearchIndex = new PostSearchIndex();
+    UserNameTrie userNameIndex = new UserNameTrie();
+    MentionProcessor mentionProcessor = new MentionProcessor(userNameIndex, notificationDispatcher);
+    TrendingEngine trending = new TrendingEngine();
+    AffinityStore affinity = new AffinityStore();
+    FeedRanker feedRanker = new FeedRanker(affinity);
+    SocialEventBus eventBus = new SocialEventBus();
+    SocialIdGenerator idGenerator = new SocialIdGenerator();
+    private final int timelineCapacity;
+    private final int celebrityThreshold;
+    // One post counter per userLocks stripe, only touched while holding that stripe. The stripe
+    // index fills the low bits, so sequences are unique and increase within every author's log
+    private final long[] stripeSequences = new long[userLocks.size()];
+    private final int stripeBits = Integer.numberOfTrailingZeros(userLocks.size());
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public SocialNetworkService() {
+        this(DEFAULT_TIMELINE_CAPACITY, DEFAULT_CELEBRITY_THRESHOLD);
+    }
+
+    public SocialNetworkService(int timelineCapacity) {
+        this(timelineCapacity, DEFAULT_CELEBRITY_THRESHOLD);
+    }
+
+    public SocialNetworkService(int timelineCapacity, int celebrityThreshold) {
+        this(timelineCapacity, celebrityThreshold, new TieredPostStore());
+    }
+
+    public SocialNetworkService(int timelineCapacity, int celebrityThreshold, TieredPostStore postStore) {
+        this.timelineCapacity = timelineCapacity;
+        this.celebrityThreshold = celebrityThreshold;
+        this.postStore = postStore;
+    }
+
+    public User register(String name, String email, String password) {
+        String hashed = hash(password);
+        String id = idGenerator.nextIdString();
+        User user = new User(id, name, email, hashed,
+                new NotificationInbox(NotificationInbox.DEFAULT_CAPACITY, notificationColdStore));
+        // Reserve the email atomically, two concurrent sign-ups can't both win
+        if (usersByEmail.putIfAbsent(email, user) != null) {
+            throw new IllegalArgumentException("User with this ID already exists.");
+        }
+        timelines.put(id, new Timeline(timelineCapacity));
+        celebrityFriends.put(id, ConcurrentHashMap.newKeySet());
+        friendGraph.intern(id);
+        userNameIndex.insert(name, id);
+        users.put(id, user);
+        eventBus.publish(new SocialEvent(SocialEventType.USER_REGISTERED, id, id));
+        System.out.println("User registered with ID: " + id);
+        return user;
+    }
+
+    private String hash(String s) {
+        return "hashed_" + s;
+    }
+
+    public User login(String email, String password) {
+        User user = usersByEmail.get(email);
+        if (user == null || !user.hashedPassword.equals(hash(password))) {
+            System.out.println("Login failed: Invalid email or password");
+            return null;
+        }
+        System.out.println("Login successful for user: " + user.name);
+        return user;
+    }
+
+    public User getUserById(String userId) {
+        return users.get(userId);
+    }
+
+    public FriendRequest sendFriendRequest(String fromUserId, String toUserId) {
+        User fromUser = users.get(fromUserId);
+        User toUser = users.get(toUserId);
+        if (fromUser != null && toUser != null) {
+            if (fromUserId.equals(toUserId) || friendGraph.areFriends(fromUserId, toUserId)) {
+                throw new IllegalArgumentException("Users are already friends.");
+            }
+            String requestId = idGenerator.nextIdString();
+            FriendRequest request = friendRequests.add(requestId, fromUserId, toUserId);
+            if (request.id.equals(requestId)) {
+                notificationDispatcher.submit(new NotificationEvent(toUserId, NotificationType.FRIEND_REQUEST,
+                        fromUserId, fromUser.name, null));
+                System.out.println("Friend request sent from " + fromUser.name + " to " + toUser.name);
+            }
+            return request;
+        } else {
+            throw new IllegalArgumentException("Invalid user IDs.");
+        }
+    }
+
+    public List<FriendRequest> getPendingFriendRequests(String userId) {
+        if (!users.containsKey(userId)) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return friendRequests.getPendingFor(userId);
+    }
+
+    public void acceptFriendRequest(String userId, String requestId) {
+        User user = users.get(userId);
+        if (user != null) {
+            FriendRequest request = friendRequests.take(userId, requestId);
+            if (request == null) {
+                throw new IllegalArgumentException("Friend request not found or already processed.");
+            }
+            completeAccept(user, request);
+        } else {
+            throw new IllegalArgumentException("User not found.");
+        }
+    }
+
+    public void rejectFriendRequest(String userId, String requestId) {
+        if (!users.containsKey(userId)) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        FriendRequest request = friendRequests.take(userId, requestId);
+        if (request == null) {
+            throw new IllegalArgumentException("Friend request not found or already processed.");
+        }
+        request.reject();
+    }
+
+    public int acceptAllFriendRequests(String userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        List<FriendRequest> accepted = friendRequests.takeAll(userId);
+        for (FriendRequest request : accepted) {
+            completeAccept(user, request);
+        }
+        return accepted.size();
+    }
+
+    public int rejectAllFriendRequests(String userId) {
+        if (!users.containsKey(userId)) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        List<FriendRequest> rejected = friendRequests.takeAll(userId);
+        for (FriendRequest request : rejected) {
+            request.reject();
+        }
+        return rejected.size();
+    }
+
+    private void completeAccept(User user, FriendRequest request) {
+        request.accept();
+        addFriend(user.id, request.fromUserId);
+        notificationDispatcher.submit(new NotificationEvent(request.fromUserId, NotificationType.FRIEND_REQUEST_ACCEPTED,
+                user.id, user.name, null));
+        System.out.println("Friend request accepted from " + request.fromUserId);
+    }
+
+    public void addFriend(String userId, String friendId) {
+        User user = users.get(userId);
+        User friend = users.get(friendId);
+        if (user != null && friend != null) {
+            if (!friendGraph.addEdge(userId, friendId)) {
+                return; // already friends, or a self-friendship
+            }
+            friendRequests.purgePair(userId, friendId);
+            user.addFriend(friend);
+            friend.addFriend(user);
+            promoteIfCelebrity(user);
+            promoteIfCelebrity(friend);
+            linkFeeds(user, friend);
+            linkFeeds(friend, user);
+            // Published last, so subscribers that read the friend lists see the new edge
+            eventBus.publish(new SocialEvent(SocialEventType.FRIENDSHIP_CREATED, userId, friendId));
+        } else {
+            throw new IllegalArgumentException("User or friend not found.");
+        }
+    }
+
+    public boolean areFriends(String userId, String otherUserId) {
+        return friendGraph.areFriends(userId, otherUserId);
+    }
+
+    public List<User> getMutualFriends(String userId, String otherUserId) {
+        List<User> mutual = new ArrayList<>();
+        for (String id : friendGraph.mutualFriends(userId, otherUserId)) {
+            mutual.add(users.get(id));
+        }
+        return mutual;
+    }
+
+    public List<FriendSuggestion> suggestFriends(String userId, int limit) {
+        if (!users.containsKey(userId)) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return friendGraph.suggestFriends(userId, limit);
+    }
+
+    public boolean isCelebrity(String userId) {
+        return celebrityPosts.containsKey(userId);
+    }
+
+    private void linkFeeds(User reader, User author) {
+        if (isCelebrity(author.id)) {
+            // Merged in at read time from the author's recent posts
+            celebrityFriends.get(reader.id).add(author.id);
+            return;
+        }
+        // Backfill so the new friend's existing posts show up in the feed, merged by age rather
+        // than pushed on top, since they are usually older than what the reader already has
+        Timeline timeline = timelines.get(reader.id);
+        PostLog log = author.postLog;
+        int from = Math.max(0, log.size() - timeline.capacity());
+        int count = log.size() - from;
+        if (count == 0) {
+            return;
+        }
+        String[] postIds = new String[count];
+        long[] createdAts = new long[count];
+        long[] postSequences = new long[count];
+        for (int i = 0; i < count; i++) {
+            postIds[i] = log.idAt(from + i);
+            createdAts[i] = log.createdAtAt(from + i);
+            postSequences[i] = log.sequenceAt(from + i);
+        }
+        timeline.merge(postIds, createdAts, postSequences);
+    }
+
+    private void promoteIfCelebrity(User user) {
+        if (isCelebrity(user.id) || user.friends.size() <= celebrityThreshold) {
+            return;
+        }
+        // From now on this user's posts are pulled at read time instead of fanned out
+        Timeline recent = new Timeline(timelineCapacity);
+        ReentrantLock lock = userLocks.get(user.id);
+        lock.lock();
+        try {
+            PostLog log = user.postLog;
+            for (int i = Math.max(0, log.size() - timelineCapacity); i < log.size(); i++) {
+                recent.push(log.idAt(i), log.createdAtAt(i), log.sequenceAt(i));
+            }
+            if (celebrityPosts.putIfAbsent(user.id, recent) != null) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (User friend : user.friends) {
+            celebrityFriends.get(friend.id).add(user.id);
+        }
+    }
+
+    public List<User> getFriends(String userId) {
+        User user = users.get(userId);
+        if (user != null && user.friends != null) {
+            List<User> friendsList = new ArrayList<>();
+            for (User friend : user.friends) {
+                if (friend != null) {
+                    friendsList.add(friend);
+                }
+            }
+            return friendsList;
+        }
+        return new ArrayList<>();
+    }
+
+    public void setProfilePicture(String userId, String url) {
+        User user = users.get(userId);
+        if (user != null) {
+            user.setProfilePicture(url);
+        } else {
+            throw new IllegalArgumentException("User not found.");
+        }
+    }
+
+    public Post createPost(String userId, String content) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        String postId = idGenerator.nextIdString();
+        Post post;
+        Timeline recent;
+        int stripe = userLocks.indexOf(userId);
+        ReentrantLock lock = userLocks.get(userId);
+        lock.lock();
+        try {
+            // Clamp to the author's last post so their PostLog stays sorted even if the wall clock steps back
+            long createdAt = Math.max(System.currentTimeMillis(), user.postLog.lastCreatedAt());
+            long sequence = (++stripeSequences[stripe] << stripeBits) | stripe;
+            post = new Post(postId, userId, content, sequence, createdAt);
+            postStore.put(post);
+            user.postLog.append(postId, createdAt, post.sequence);
+            recent = celebrityPosts.get(userId);
+        } finally {
+            lock.unlock();
+        }
+        postSearchIndex.index(postId, content);
+        mentionProcessor.submit(userId, user.name, postId, content);
+        eventBus.publish(new SocialEvent(SocialEventType.POST_CREATED, userId, postId, postId));
+        if (recent != null) {
+            // Hybrid mode: fanning out to millions of friends would make posting unbounded
+            recent.push(postId, post.createdAt, post.sequence);
+            return post;
+        }
+        // Fan-out on write: feed reads become a slice of the precomputed timeline
+        for (User friend : user.friends) {
+            timelines.get(friend.id).push(postId, post.createdAt, post.sequence);
+        }
+        return post;
+    }
+
+    public void likePost(String userId, String postId) {
+        User user = users.get(userId);
+        Post post = postStore.get(postId);
+        if (user == null || post == null) {
+            throw new IllegalArgumentException("User or post not found.");
+        }
+        if (postStore.update(postId, p -> p.addLike(userId))) {
+            trending.record(postId, 1);
+            affinity.record(userId, post.userId, 1);
+            eventBus.publish(new SocialEvent(SocialEventType.POST_LIKED, userId, postId, postId));
+            if (!userId.equals(post.userId)) {
+                notificationDispatcher.submit(new NotificationEvent(post.userId, NotificationType.LIKE, userId, user.name, postId));
+            }
+        }
+    }
+
+    public void commentOnPost(String userId, String postId, String content) {
+        User user = users.get(userId);
+        Post post = postStore.get(postId);
+        if (user == null || post == null) {
+            throw new IllegalArgumentException("User or post not found.");
+        }
+        String commentId = idGenerator.nextIdString();
+        Comment comment = new Comment(commentId, userId, postId, content);
+        postStore.update(postId, p -> {
+            p.addComment(comment);
+            return null;
+        });
+        trending.record(postId, 2); // a comment is a stronger signal than a like
+        affinity.record(userId, post.userId, 2);
+        eventBus.publish(new SocialEvent(SocialEventType.COMMENT_ADDED, userId, commentId, postId));
+        mentionProcessor.submit(userId, user.name, postId, content);
+        if (!userId.equals(post.userId)) {
+            notificationDispatcher.submit(new NotificationEvent(post.userId, NotificationType.COMMENT, userId, user.name, postId));
+        }
+    }
+
+    public void removeLike(String userId, String postId) {
+        User user = users.get(userId);
+        Post post = postStore.get(postId);
+        if (user == null || post == null) {
+            throw new IllegalArgumentException("User or post not found.");
+        }
+        postStore.update(postId, p -> p.removeLike(userId));
+    }
+
+    public void removeComment(String userId, String postId, String commentId) {
+        User user = users.get(userId);
+        Post post = postStore.get(postId);
+        if (user == null || post == null) {
+            throw new IllegalArgumentException("User or post not found.");
+        }
+        postStore.update(postId, p -> p.removeComment(commentId));
+    }
+
+    public CommentPage getComments(String postId, String cursor, int limit) {
+        Post post = postStore.get(postId);
+        if (post == null) {
+            throw new IllegalArgumentException("Post not found.");
+        }
+        return post.getCommentPage(cursor, limit);
+    }
+
+    public List<Post> getPostsByUser(String userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        List<Post> posts = new ArrayList<>();
+        for (String postId : user.getPostIds()) {
+            Post post = postStore.get(postId);
+            if (post != null) {
+                posts.add(post);
+            }
+        }
+        return posts;
+    }
+
+    public List<Post> searchPosts(String query, SearchMode mode, int limit) {
+        List<Post> result = new ArrayList<>();
+        for (String postId : postSearchIndex.search(query, mode, limit)) {
+            Post post = postStore.get(postId);
+            if (post != null) {
+                result.add(post);
+            }
+        }
+        return result;
+    }
+
+    public List<Post> getTrendingPosts(int limit) {
+        List<Post> result = new ArrayList<>();
+        for (TrendingPost trendingPost : trending.getTrending(limit)) {
+            Post post = postStore.get(trendingPost.postId);
+            if (post != null) {
+                result.add(post);
+            }
+        }
+        return result;
+    }
+
+    public List<User> searchUsersByPrefix(String prefix, int limit) {
+        List<User> result = new ArrayList<>();
+        for (String userId : userNameIndex.findByPrefix(prefix, limit)) {
+            result.add(users.get(userId));
+        }
+        return result;
+    }
+
+    // Captured on the background writer; each entity is read atomically, the graph as a whole is not frozen
+    public CompletableFuture<Path> saveSnapshotAsync(Path path) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                SocialGraphSnapshot.write(captureSnapshot(), path);
+                return path;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, snapshotExecutor);
+    }
+
+    SnapshotData captureSnapshot() {
+        SnapshotData data = new SnapshotData();
+        List<User> userList = new ArrayList<>(users.values());
+        Map<String, Integer> userIndex = new HashMap<>();
+        int userCount = userList.size();
+        data.userIds = new String[userCount];
+        data.userNames = new String[userCount];
+        data.userEmails = new String[userCount];
+        data.userPasswords = new String[userCount];
+        data.userPictures = new String[userCount];
+        for (int i = 0; i < userCount; i++) {
+            User user = userList.get(i);
+            userIndex.put(user.id, i);
+            data.userIds[i] = user.id;
+            data.userNames[i] = user.name;
+            data.userEmails[i] = user.email;
+            data.userPasswords[i] = user.hashedPassword;
+            data.userPictures[i] = user.profilePictureUrl;
+        }
+
+        List<Post> postList = new ArrayList<>();
+        for (String postId : postStore.allPostIds()) {
+            Post post = postStore.peek(postId);
+            if (post != null && userIndex.containsKey(post.userId)) {
+                postList.add(post);
+            }
+        }
+        postList.sort(Comparator.comparingLong(post -> post.sequence));
+        int postCount = postList.size();
+        data.postIds = new String[postCount];
+        data.postAuthors = new int[postCount];
+        data.postContents = new String[postCount];
+        data.postSequences = new long[postCount];
+        data.postCreatedAt = new long[postCount];
+        IntStream.Builder likePosts = IntStream.builder();
+        IntStream.Builder likeUsers = IntStream.builder();
+        List<Comment> comments = new ArrayList<>();
+        IntStream.Builder commentPosts = IntStream.builder();
+        for (int i = 0; i < postCount; i++) {
+            Post post = postList.get(i);
+            data.postIds[i] = post.id;
+            data.postAuthors[i] = userIndex.get(post.userId);
+            data.postContents[i] = post.content;
+            data.postSequences[i] = post.sequence;
+            data.postCreatedAt[i] = post.createdAt;
+            for (String likerId : post.getLikes()) {
+                Integer liker = userIndex.get(likerId);
+                if (liker != null) {
+                    likePosts.add(i);
+                    likeUsers.add(liker);
+                }
+            }
+            for (Comment comment : post.getComments()) {
+                if (userIndex.containsKey(comment.userId)) {
+                    comments.add(comment);
+                    commentPosts.add(i);
+                }
+            }
+        }
+        data.likePosts = likePosts.build().toArray();
+        data.likeUsers = likeUsers.build().toArray();
+        data.commentPosts = commentPosts.build().toArray();
+        data.commentIds = new String[comments.size()];
+        data.commentUsers = new int[comments.size()];
+        data.commentContents = new String[comments.size()];
+        data.commentCreatedAt = new long[comments.size()];
+        for (int i = 0; i < comments.size(); i++) {
+            Comment comment = comments.get(i);
+            data.commentIds[i] = comment.id;
+            data.commentUsers[i] = userIndex.get(comment.userId);
+            data.commentContents[i] = comment.content;
+            data.commentCreatedAt[i] = comment.createdAt;
+        }
+
+        IntStream.Builder edgeFrom = IntStream.builder();
+        IntStream.Builder edgeTo = IntStream.builder();
+        for (int i = 0; i < userCount; i++) {
+            for (User friend : userList.get(i).friends) {
+                Integer j = userIndex.get(friend.id);
+                if (j != null && i < j) {
+                    edgeFrom.add(i);
+                    edgeTo.add(j);
+                }
+            }
+        }
+        data.edgeFrom = edgeFrom.build().toArray();
+        data.edgeTo = edgeTo.build().toArray();
+        return data;
+    }
+
+    // Notifications and pending friend requests are not part of the snapshot
+    public void restoreSnapshot(Path path) throws IOException {
+        if (!users.isEmpty()) {
+            throw new IllegalStateException("Snapshots can only be restored into an empty service.");
+        }
+        SnapshotData data = SocialGraphSnapshot.read(path);
+
+        User[] restoredUsers = new User[data.userIds.length];
+        for (int i = 0; i < restoredUsers.length; i++) {
+            User user = new User(data.userIds[i], data.userNames[i], data.userEmails[i], data.userPasswords[i],
+                    new NotificationInbox(NotificationInbox.DEFAULT_CAPACITY, notificationColdStore));
+            user.profilePictureUrl = data.userPictures[i];
+            restoredUsers[i] = user;
+            usersByEmail.put(user.email, user);
+            timelines.put(user.id, new Timeline(timelineCapacity));
+            celebrityFriends.put(user.id, ConcurrentHashMap.newKeySet());
+            friendGraph.intern(user.id);
+            users.put(user.id, user);
+        }
+
+        Post[] restoredPosts = new Post[data.postIds.length];
+        IntStream.range(0, restoredPosts.length).parallel().forEach(i -> restoredPosts[i] = new Post(data.postIds[i],
+                restoredUsers[data.postAuthors[i]].id, data.postContents[i], data.postSequences[i], data.postCreatedAt[i]));
+
+        // Independent indexes are rebuilt concurrently
+        CompletableFuture<Void> engagement = CompletableFuture.runAsync(() -> {
+            IntStream.range(0, data.likePosts.length).parallel()
+                    .forEach(i -> restoredPosts[data.likePosts[i]].addLike(restoredUsers[data.likeUsers[i]].id));
+            for (int i = 0; i < data.commentIds.length; i++) {
+                Post post = restoredPosts[data.commentPosts[i]];
+                post.addComment(new Comment(data.commentIds[i], restoredUsers[data.commentUsers[i]].id, post.id,
+                        data.commentContents[i], data.commentCreatedAt[i]));
+            }
+        });
+        // Engagement goes onto the plain Post objects, so it must land before put() can spill them to disk
+        CompletableFuture<Void> postLogs = engagement.thenRunAsync(() -> {
+            for (Post post : restoredPosts) {
+                User author = users.get(post.userId);
+                postStore.put(post);
+                author.postLog.append(post.id, post.createdAt, post.sequence);
+            }
+        });
+        CompletableFuture<Void> search = CompletableFuture.runAsync(() -> {
+            for (Post post : restoredPosts) {
+                postSearchIndex.index(post.id, post.content);
+            }
+        });
+        CompletableFuture<Void> names = CompletableFuture.runAsync(() -> {
+            for (User user : restoredUsers) {
+                userNameIndex.insert(user.name, user.id);
+            }
+        });
+        CompletableFuture<Void> graph = CompletableFuture.runAsync(() -> {
+            String[] from = new String[data.edgeFrom.length];
+            String[] to = new String[data.edgeTo.length];
+            for (int i = 0; i < from.length; i++) {
+                from[i] = restoredUsers[data.edgeFrom[i]].id;
+                to[i] = restoredUsers[data.edgeTo[i]].id;
+            }
+            friendGraph.addEdges(from, to);
+            Arrays.stream(restoredUsers).parallel().forEach(user -> {
+                List<User> friends = new ArrayList<>();
+                for (String friendId : friendGraph.friendsOf(user.id)) {
+                    friends.add(users.get(friendId));
+                }
+                Set<User> friendSet = ConcurrentHashMap.newKeySet(friends.size());
+                friendSet.addAll(friends);
+                user.friends = friendSet;
+            });
+        });
+
+        // Feeds depend on both posts and friendships
+        CompletableFuture.allOf(postLogs, graph).join();
+        for (User user : restoredUsers) {
+            promoteIfCelebrity(user);
+        }
+        Arrays.stream(restoredUsers).parallel().forEach(this::rebuildTimeline);
+        long maxSequence = 0;
+        for (Post post : restoredPosts) {
+            maxSequence = Math.max(maxSequence, post.sequence);
+        }
+        // Restart every stripe above the restored sequences; timestamps clamp per author from the rebuilt logs
+        for (int stripe = 0; stripe < stripeSequences.length; stripe++) {
+            ReentrantLock lock = userLocks.get(stripe);
+            lock.lock();
+            try {
+                stripeSequences[stripe] = Math.max(stripeSequences[stripe], (maxSequence >>> stripeBits) + 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+        CompletableFuture.allOf(search, names).join();
+    }
+
+    private void rebuildTimeline(User reader) {
+        // Newest timelineCapacity posts across non-celebrity friends, keyed by (createdAt, sequence)
+        TreeMap<long[], String> newest = new TreeMap<>(Comparator.<long[]>comparingLong(key -> key[0]).thenComparingLong(key -> key[1]));
+        for (User friend : reader.friends) {
+            if (isCelebrity(friend.id)) {
+                continue;
+            }
+            PostLog log = friend.postLog;
+            for (int i = Math.max(0, log.size() - timelineCapacity); i < log.size(); i++) {
+                newest.put(new long[] {log.createdAtAt(i), log.sequenceAt(i)}, log.idAt(i));
+                if (newest.size() > timelineCapacity) {
+                    newest.pollFirstEntry();
+                }
+            }
+        }
+        Timeline timeline = timelines.get(reader.id);
+        for (Map.Entry<long[], String> entry : newest.entrySet()) {
+            timeline.push(entry.getValue(), entry.getKey()[0], entry.getKey()[1]);
+        }
+    }
+
+    public SocialEventBus getEventBus() {
+        return eventBus;
+    }
+
+    public List<User> getAllUsers() {
+        return new ArrayList<>(users.values());
+    }
+
+    public List<Post> getNewsFeed(String userId) {
+        return getNewsFeed(userId, timelineCapacity);
+    }
+
+    public List<Post> getNewsFeed(String userId, int limit) {
+        Timeline timeline = timelines.get(userId);
+        if (timeline == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        List<Post> newsFeed = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        addPosts(newsFeed, seen, timeline.latest(limit));
+        for (String celebrityId : celebrityFriends.get(userId)) {
+            // Posts from before the promotion may already be in the timeline
+            addPosts(newsFeed, seen, celebrityPosts.get(celebrityId).latest(limit));
+        }
+        // The timeline is already ordered, celebrity rings merged in at read time are not
+        // interleaved with it, so the combined page is put in feed order
+        newsFeed.sort(Post.NEWEST_FIRST);
+        return newsFeed.size() > limit ? new ArrayList<>(newsFeed.subList(0, limit)) : newsFeed;
+    }
+
+    // Feed candidates ordered by author affinity, engagement and recency
+    public List<Post> getRankedFeed(String userId, int limit) {
+        List<Post> candidates = getNewsFeed(userId, timelineCapacity);
+        return feedRanker.rank(userId, candidates, limit);
+    }
+
+    // Time-ordered, newest first. Pass the previous page's cursor, or null for the first page.
+    // Each page costs O(F log P + N log F) for F friends with up to P posts each and N returned posts:
+    // the cursor only holds a timestamp, so every friend's log is searched again before the merge starts
+    public FeedPage getFeedPage(String userId, String cursor, int limit) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        long cursorTime = Long.MAX_VALUE;
+        long cursorSequence = Long.MAX_VALUE;
+        if (cursor != null) {
+            long[] decoded = decodeCursor(cursor);
+            cursorTime = decoded[0];
+            cursorSequence = decoded[1];
+        }
+
+        // k-way merge: one heap entry per friend, positioned just before the cursor
+        List<User> friends = new ArrayList<>(user.friends);
+        PriorityQueue<int[]> heap = new PriorityQueue<>(Comparator
+                .comparingLong((int[] head) -> friends.get(head[0]).postLog.createdAtAt(head[1]))
+                .thenComparingLong(head -> friends.get(head[0]).postLog.sequenceAt(head[1]))
+                .reversed());
+        for (int i = 0; i < friends.size(); i++) {
+            int index = friends.get(i).postLog.indexBefore(cursorTime, cursorSequence);
+            if (index >= 0) {
+                heap.add(new int[] { i, index });
+            }
+        }
+
+        List<Post> page = new ArrayList<>(limit);
+        Post last = null;
+        while (page.size() < limit && !heap.isEmpty()) {
+            int[] head = heap.poll();
+            PostLog log = friends.get(head[0]).postLog;
+            Post post = postStore.get(log.idAt(head[1]));
+            if (post != null) {
+                page.add(post);
+                last = post;
+            }
+            if (head[1] > 0) {
+                heap.add(new int[] { head[0], head[1] - 1 });
+            }
+        }
+        String nextCursor = heap.isEmpty() || last == null ? null : encodeCursor(last.createdAt, last.sequence);
+        return new FeedPage(page, nextCursor);
+    }
+
+    private String encodeCursor(long createdAt, long sequence) {
+        String raw = createdAt + ":" + sequence;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes());
+    }
+
+    private long[] decodeCursor(String cursor) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(cursor)).split(":");
+            return new long[] { Long.parseLong(parts[0]), Long.parseLong(parts[1]) };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor.");
+        }
+    }
+
+    private void addPosts(List<Post> target, Set<String> seen, List<String> postIds) {
+        for (String postId : postIds) {
+            Post post = postStore.get(postId);
+            if (post != null && seen.add(postId)) {
+                target.add(post);
+            }
+        }
+    }
+
+    public void sendNotification(String userId, NotificationType type, String message) {
+        String notificationId = idGenerator.nextIdString();
+        Notification notification = new Notification(notificationId, userId, type, message);
+        User user = users.get(userId);
+        if (user != null) {
+            user.addNotification(notification);
+            System.out.println("Notification sent to " + user.name + ": " + message);
+        } else {
+            throw new IllegalArgumentException("User not found.");
+        }
+    }
+
+    // Waits for queued notifications to be delivered, mostly useful before reading an inbox
+    public void flushNotifications() {
+        mentionProcessor.flush();
+        notificationDispatcher.flush();
+    }
+
+    // Delivers what is queued, then stops every background thread and executor the service started
+    public void close() {
+        flushNotifications();
+        mentionProcessor.close();
+        notificationDispatcher.close();
+        eventBus.close();
+        snapshotExecutor.shutdown();
+        try {
+            postStore.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public List<Notification> getNotifications(String userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return user.notifications.getUnread(userId);
+    }
+
+    public int getUnreadNotificationCount(String userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return user.notifications.getUnreadCount();
+    }
+
+    public int markAllNotificationsAsRead(String userId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        return user.notifications.markAllAsRead(userId);
+    }
+
+    public void markNotificationAsRead(String userId, String notificationId) {
+        User user = users.get(userId);
+        if (user == null) {
+            throw new IllegalArgumentException("User not found.");
+        }
+        Notification notification = user.notifications.markAsRead(userId, notificationId);
+        if (notification == null) {
+            throw new IllegalArgumentException("Notification not found.");
+        }
+        System.out.println("Notification marked as read: " + notification.message);
+    }
+}
+
+
+enum SocialOperation {
+    FEED_READ, CREATE_POST, LIKE_POST, COMMENT, READ_NOTIFICATIONS
+}
+
+class ZipfSampler {
+    // Rank r is drawn with probability proportional to 1 / r^exponent
+    private final double[] cdf;
+
+    public ZipfSampler(int size, double exponent) {
+        cdf = new double[size];
+        double sum = 0;
+        for (int rank = 1; rank <= size; rank++) {
+            sum += 1.0 / Math.pow(rank, exponent);
+            cdf[rank - 1] = sum;
+        }
+        for (int i = 0; i < size; i++) {
+            cdf[i] /= sum;
+        }
+    }
+
+    public int sample(SplittableRandom random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(index >= 0 ? index : -index - 1, cdf.length - 1);
+    }
+}
+
+class SocialWorkloadConfig {
+    int users = 5_000;
+    int edgesPerUser = 8; // preferential attachment: each new user befriends this many existing users
+    int seedPostsPerUser = 2;
+    double zipfExponent = 1.1;
+    int timelineCapacity = SocialNetworkService.DEFAULT_TIMELINE_CAPACITY;
+    int celebrityThreshold = 500;
+    int opsPerThread = 50_000;
+    int warmupOps = 20_000;
+    long seed = 42;
+    final EnumMap<SocialOperation, Integer> mix = new EnumMap<>(SocialOperation.class);
+
+    public SocialWorkloadConfig() {
+        mix.put(SocialOperation.FEED_READ, 60);
+        mix.put(SocialOperation.CREATE_POST, 8);
+        mix.put(SocialOperation.LIKE_POST, 20);
+        mix.put(SocialOperation.COMMENT, 7);
+        mix.put(SocialOperation.READ_NOTIFICATIONS, 5);
+    }
+
+    public SocialWorkloadConfig users(int users) {
+        this.users = users;
+        return this;
+    }
+
+    public SocialWorkloadConfig edgesPerUser(int edgesPerUser) {
+        this.edgesPerUser = edgesPerUser;
+        return this;
+    }
+
+    public SocialWorkloadConfig zipfExponent(double zipfExponent) {
+        this.zipfExponent = zipfExponent;
+        return this;
+    }
+
+    public SocialWorkloadConfig opsPerThread(int opsPerThread) {
+        this.opsPerThread = opsPerThread;
+        return this;
+    }
+
+    public SocialWorkloadConfig weight(SocialOperation operation, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("Weight must not be negative.");
+        }
+        mix.put(operation, weight);
+        return this;
+    }
+}
+
+class SocialWorkload {
+    private final SocialNetworkService network;
+    private final String[] userIds;
+    private final String[] postIds; // index 0 is the most popular post
+    private final ZipfSampler popularity;
+    private final SocialOperation[] operations = SocialOperation.values();
+    private final int[] cumulativeWeights = new int[operations.length];
+
+    // Builds a power-law friend graph (Barabasi-Albert) and seed posts on a fresh service
+    public SocialWorkload(SocialWorkloadConfig config) {
+        network = new SocialNetworkService(config.timelineCapacity, config.celebrityThreshold);
+        SplittableRandom random = new SplittableRandom(config.seed);
+        userIds = new String[config.users];
+        for (int i = 0; i < config.users; i++) {
+            userIds[i] = network.register("User" + i, "user" + i + "@bench.local", "pass").id;
+        }
+        // Every edge endpoint goes in this list, so sampling from it picks users proportionally to degree
+        int[] endpoints = new int[2 * config.users * config.edgesPerUser];
+        int endpointCount = 0;
+        for (int i = 1; i < config.users; i++) {
+            int edges = Math.min(i, config.edgesPerUser);
+            for (int e = 0; e < edges; e++) {
+                int target = endpointCount == 0 ? 0 : endpoints[random.nextInt(endpointCount)];
+                if (target == i || network.areFriends(userIds[i], userIds[target])) {
+                    target = random.nextInt(i); // fall back to uniform so the user still gets its edges
+                }
+                if (network.areFriends(userIds[i], userIds[target])) {
+                    continue;
+                }
+                network.addFriend(userIds[i], userIds[target]);
+                endpoints[endpointCount++] = i;
+                endpoints[endpointCount++] = target;
+            }
+        }
+        List<String> seeded = new ArrayList<>();
+        for (int p = 0; p < config.seedPostsPerUser; p++) {
+            for (String userId : userIds) {
+                seeded.add(network.createPost(userId, "seed post " + p).id);
+            }
+        }
+        // Shuffle so popularity rank is unrelated to the author's registration order
+        Collections.shuffle(seeded, new Random(config.seed));
+        postIds = seeded.toArray(new String[0]);
+        popularity = new ZipfSampler(postIds.length, config.zipfExponent);
+        int total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += config.mix.getOrDefault(operations[i], 0);
+            cumulativeWeights[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Operation mix must have a positive weight.");
+        }
+        network.flushNotifications();
+    }
+
+    public SocialNetworkService getNetwork() {
+        return network;
+    }
+
+    public SocialOperation nextOperation(SplittableRandom random) {
+        int pick = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (pick < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    public void execute(SocialOperation operation, SplittableRandom random) {
+        String userId = userIds[random.nextInt(userIds.length)];
+        switch (operation) {
+            case FEED_READ -> network.getNewsFeed(userId, 20);
+            case CREATE_POST -> network.createPost(userId, "post " + random.nextInt(1_000_000));
+            case LIKE_POST -> network.likePost(userId, postIds[popularity.sample(random)]);
+            case COMMENT -> network.commentOnPost(userId, postIds[popularity.sample(random)], "comment " + random.nextInt(1_000_000));
+            case READ_NOTIFICATIONS -> {
+                network.getNotifications(userId);
+                network.markAllNotificationsAsRead(userId);
+            }
+        }
+    }
+}
+
+class OperationHistogram {
+    // Same log-linear layout as the elevator latency histogram, in nanoseconds and single-writer
+    private static final int SUB_BUCKETS = 64;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = SUB_BUCKETS + MAX_EXPONENT * HALF_SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long totalCount;
+    private long maxValue;
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts[indexOf(value)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, value);
+    }
+
+    public void merge(OperationHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        maxValue = Math.max(maxValue, other.maxValue);
+    }
+
+    public long getCount() {
+        return totalCount;
+    }
+
+    public long getMax() {
+        return maxValue;
+    }
+
+    public long valueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(totalCount * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), maxValue);
+            }
+        }
+        return maxValue;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = (63 - Long.numberOfLeadingZeros(value)) - 5;
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        return SUB_BUCKETS + (exponent - 1) * HALF_SUB_BUCKETS + (int) ((value >>> exponent) - HALF_SUB_BUCKETS);
+    }
+
+    private static long highestValueAt(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        long subBucket = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+}
+
+class OperationStats {
+    final OperationHistogram latency = new OperationHistogram();
+    long allocatedBytes = -1; // -1 when the JVM can't measure per-thread allocation
+    long errors;
+
+    public void merge(OperationStats other) {
+        latency.merge(other.latency);
+        errors += other.errors;
+        if (other.allocatedBytes >= 0) {
+            allocatedBytes = Math.max(allocatedBytes, 0) + other.allocatedBytes;
+        }
+    }
+}
+
+class SocialBenchmarkResult {
+    final int threads;
+    final long elapsedNanos;
+    final long heapGrowthBytes;
+    final EnumMap<SocialOperation, OperationStats> stats;
+
+    public SocialBenchmarkResult(int threads, long elapsedNanos, long heapGrowthBytes,
+                                 EnumMap<SocialOperation, OperationStats> stats) {
+        this.threads = threads;
+        this.elapsedNanos = elapsedNanos;
+        this.heapGrowthBytes = heapGrowthBytes;
+        this.stats = stats;
+    }
+
+    public long getTotalOps() {
+        long total = 0;
+        for (OperationStats s : stats.values()) {
+            total += s.latency.getCount();
+        }
+        return total;
+    }
+
+    public double opsPerSecond(long count) {
+        return count * 1e9 / Math.max(1, elapsedNanos);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("threads=%d  %.0f ops/s  %.1f ms  heap growth %.1f MB%n", threads,
+                opsPerSecond(getTotalOps()), elapsedNanos / 1e6, heapGrowthBytes / (1024.0 * 1024.0)));
+        out.append(String.format("  %-19s %10s %10s %9s %9s %9s %9s %9s %7s%n",
+                "operation", "count", "ops/s", "p50 us", "p90 us", "p99 us", "max us", "B/op", "errors"));
+        for (Map.Entry<SocialOperation, OperationStats> entry : stats.entrySet()) {
+            OperationHistogram latency = entry.getValue().latency;
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            long allocated = entry.getValue().allocatedBytes;
+            out.append(String.format("  %-19s %10d %10.0f %9.1f %9.1f %9.1f %9.1f %9s %7d%n",
+                    entry.getKey(), count, opsPerSecond(count),
+                    latency.valueAtPercentile(50) / 1e3, latency.valueAtPercentile(90) / 1e3,
+                    latency.valueAtPercentile(99) / 1e3, latency.getMax() / 1e3,
+                    allocated < 0 ? "n/a" : String.valueOf(allocated / count), entry.getValue().errors));
+        }
+        return out.toString();
+    }
+}
+
+class SocialBenchmark {
+    private final SocialWorkloadConfig config;
+    private final com.sun.management.ThreadMXBean threadBean; // null when allocation can't be measured
+
+    public SocialBenchmark(SocialWorkloadConfig config) {
+        this.config = config;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean sunBean && sunBean.isThreadAllocatedMemorySupported()) {
+            sunBean.setThreadAllocatedMemoryEnabled(true);
+            threadBean = sunBean;
+        } else {
+            threadBean = null;
+        }
+    }
+
+    // Runs 1, 2, 4, ... threads up to maxThreads, each on a freshly built workload
+    public List<SocialBenchmarkResult> run(int maxThreads) throws InterruptedException {
+        List<SocialBenchmarkResult> results = new ArrayList<>();
+        int threads = 1;
+        while (true) {
+            results.add(runWith(threads));
+            if (threads >= maxThreads) {
+                return results;
+            }
+            threads = Math.min(threads * 2, maxThreads);
+        }
+    }
+
+    public SocialBenchmarkResult runWith(int threads) throws InterruptedException {
+        // The service logs every action to stdout, which would dominate the timings
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        SocialWorkload workload;
+        SocialNetworkService network = null;
+        try {
+            workload = new SocialWorkload(config);
+            network = workload.getNetwork();
+            SplittableRandom warmupRandom = new SplittableRandom(config.seed + 1);
+            for (int i = 0; i < config.warmupOps; i++) {
+                runOperation(workload, workload.nextOperation(warmupRandom), warmupRandom, null);
+            }
+            workload.getNetwork().flushNotifications();
+            System.gc();
+            long heapBefore = usedHeap();
+
+            List<EnumMap<SocialOperation, OperationStats>> perThread = new ArrayList<>();
+            List<Thread> workers = new ArrayList<>();
+            CountDownLatch start = new CountDownLatch(1);
+            SplittableRandom seeds = new SplittableRandom(config.seed + threads);
+            for (int t = 0; t < threads; t++) {
+                EnumMap<SocialOperation, OperationStats> stats = newStats();
+                perThread.add(stats);
+                SplittableRandom random = seeds.split();
+                Thread worker = new Thread(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < config.opsPerThread; i++) {
+                        runOperation(workload, workload.nextOperation(random), random, stats);
+                    }
+                }, "bench-worker-" + t);
+                workers.add(worker);
+                worker.start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            long elapsed = System.nanoTime() - begin;
+            workload.getNetwork().flushNotifications();
+            long heapGrowth = usedHeap() - heapBefore;
+
+            EnumMap<SocialOperation, OperationStats> merged = newStats();
+            for (EnumMap<SocialOperation, OperationStats> stats : perThread) {
+                for (SocialOperation operation : SocialOperation.values()) {
+                    merged.get(operation).merge(stats.get(operation));
+                }
+            }
+            return new SocialBenchmarkResult(threads, elapsed, heapGrowth, merged);
+        } finally {
+            // Each run builds a fresh service, so its threads must not outlive the run
+            if (network != null) {
+                network.close();
+            }
+            System.setOut(console);
+        }
+    }
+
+    private void runOperation(SocialWorkload workload, SocialOperation operation, SplittableRandom random,
+                              EnumMap<SocialOperation, OperationStats> stats) {
+        long allocatedBefore = stats != null && threadBean != null ? threadBean.getCurrentThreadAllocatedBytes() : 0;
+        long begin = System.nanoTime();
+        boolean failed = false;
+        try {
+            workload.execute(operation, random);
+        } catch (IllegalArgumentException e) {
+            failed = true;
+        }
+        if (stats == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - begin;
+        OperationStats s = stats.get(operation);
+        s.latency.record(elapsed);
+        if (failed) {
+            s.errors++;
+        }
+        if (threadBean != null) {
+            s.allocatedBytes = Math.max(s.allocatedBytes, 0) + threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+    }
+
+    private static EnumMap<SocialOperation, OperationStats> newStats() {
+        EnumMap<SocialOperation, OperationStats> stats = new EnumMap<>(SocialOperation.class);
+        for (SocialOperation operation : SocialOperation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+        return stats;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
+
+
+public class SocialNetworkApp {
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length >= 1 && args[0].equals("bench")) {
+            int maxThreads = args.length >= 2 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            SocialWorkloadConfig config = new SocialWorkloadConfig();
+            if (args.length >= 3) {
+                config.opsPerThread(Integer.parseInt(args[2]));
+            }
+            for (SocialBenchmarkResult result : new SocialBenchmark(config).run(maxThreads)) {
+                System.out.println(result);
+            }
+            return;
+        }
+
+        SocialNetworkService network = new SocialNetworkService();
 
         // 1. Register users
         User alice = network.register("Alice", "alice@mail.com", "pass123");
@@ -390,8 +4293,8 @@ public class SocialNetworkApp {
         network.sendFriendRequest(alice.id, bob.id);
         // Bob accepts it
         System.out.println("Bob's Friend Requests:" + 
-        bob.friendRequests.stream().map(req -> req.fromUserId).toList());
-        FriendRequest bobRequest = bob.friendRequests.get(0);
+        network.getPendingFriendRequests(bob.id).stream().map(req -> req.fromUserId).toList());
+        FriendRequest bobRequest = network.getPendingFriendRequests(bob.id).get(0);
         network.acceptFriendRequest(bob.id, bobRequest.id);
 
         // 4. Alice creates a post
@@ -399,20 +4302,21 @@ public class SocialNetworkApp {
 
         // 5. Bob likes and comments on Alice's post
         network.likePost(bob.id, alicePost.id);
-        network.commentOnPost(bob.id, alicePost.id, "Nice post!");
+        network.commentOnPost(bob.id, alicePost.id, "Nice post! @charlie should see this");
 
         // 6. Newsfeed for Bob
         List<Post> bobsFeed = network.getNewsFeed(bob.id);
         System.out.println("\n📰 Bob's Newsfeed:");
         for (Post post : bobsFeed) {
             System.out.println("Post by " + post.userId + ": " + post.content);
-            System.out.println("Likes: " + post.getLikes().size());
-            for (Comment comment : post.getComments()) {
+            System.out.println("Likes: " + post.getLikeCount());
+            for (Comment comment : post.getCommentPage(null, 10).getComments()) {
                 System.out.println("Comment: " + comment.content);
             }
         }
 
         // 7. Notifications for Alice
+        network.flushNotifications();
         System.out.println("\n🔔 Alice's Notifications:");
         List<Notification> aliceNotifs = network.getNotifications(alice.id);
         for (Notification n : aliceNotifs) {
@@ -440,16 +4344,14 @@ UML Diagram:
 | - email: String     |
 | - hashedPassword: String |
 | - profilePictureUrl: String |
-| - friends: List<User> |
-| - friendRequests: List<FriendRequest> |
-| - posts: Map<String, Post> |
-| - notifications: List<Notification> |
+| - friends: Set<User>  |
+| - postLog: PostLog |
+| - notifications: NotificationInbox |
 +---------------------+
 | +setProfilePicture(url: String): void |
 | +addFriend(friend: User): void        |
-| +recieveFriendRequest(request: FriendRequest): void |
 | +getFriends(): List<User>            |
-| +getPosts(): List<Post>              |
+| +getPostIds(): List<String>          |
 | +addNotification(notification: Notification): void |
 +---------------------+
 
@@ -471,15 +4373,22 @@ UML Diagram:
 | - id: String        |
 | - userId: String    |
 | - content: String   |
-| - likes: List<String> |
-| - comments: List<Comment> |
+| - sequence: long    |
+| - createdAt: long   |
+| - likes: Set<String> |
+| - likeCount: LongAdder |
+| - comments: CommentThread |
 +---------------------+
-| +addLike(userId: String): void        |
+| +addLike(userId: String): boolean     |
 | +addComment(comment: Comment): void   |
-| +removeLike(userId: String): void     |
+| +removeLike(userId: String): boolean  |
 | +removeComment(commentId: String): void |
 | +getComments(): List<Comment>         |
+| +getCommentPage(cursor, limit): CommentPage |
+| +getCommentCount(): int               |
 | +getLikes(): List<String>             |
+| +getLikeCount(): long                 |
+| +isLikedBy(userId: String): boolean   |
 | +getContent(): String                 |
 +---------------------+
 
@@ -490,6 +4399,7 @@ UML Diagram:
 | - userId: String    |
 | - postId: String    |
 | - content: String   |
+| - createdAt: long   |
 +---------------------+
 
 +-----------------------------+
@@ -519,20 +4429,52 @@ UML Diagram:
 +-----------------------------+
 | - users: Map<String, User>  |
 | - usersByEmail: Map<String, User> |
-| - postsMap: Map<String, Post>     |
+| - postStore: TieredPostStore      |
+| - timelines: Map<String, Timeline>|
+| - celebrityPosts: Map<String, Timeline> |
+| - celebrityFriends: Map<String, Set<String>> |
+| - friendGraph: FriendGraph  |
+| - friendRequests: FriendRequestStore |
+| - postSearchIndex: PostSearchIndex |
+| - userNameIndex: UserNameTrie |
+| - mentionProcessor: MentionProcessor |
+| - trending: TrendingEngine  |
+| - affinity: AffinityStore   |
+| - feedRanker: FeedRanker    |
+| - eventBus: SocialEventBus  |
+| - idGenerator: SocialIdGenerator |
+| - notificationDispatcher: NotificationDispatcher |
+| - snapshotExecutor: ExecutorService |
 +-----------------------------+
 | +register(...)              |
 | +login(...)                 |
 | +sendFriendRequest(...)     |
 | +acceptFriendRequest(...)   |
+| +rejectFriendRequest(...)   |
+| +acceptAllFriendRequests(...) |
+| +rejectAllFriendRequests(...) |
+| +getPendingFriendRequests(...) |
+| +areFriends(...)            |
+| +getMutualFriends(...)      |
+| +suggestFriends(...)        |
 | +createPost(...)            |
 | +likePost(...)              |
 | +commentOnPost(...)         |
 | +removeLike(...)            |
 | +removeComment(...)         |
 | +getNewsFeed(...)           |
+| +searchPosts(...)           |
+| +getTrendingPosts(...)      |
+| +searchUsersByPrefix(...)   |
+| +getFeedPage(userId, cursor, limit): FeedPage |
+| +getRankedFeed(userId, limit): List<Post> |
 | +sendNotification(...)      |
 | +markNotificationAsRead(...)|
+| +saveSnapshotAsync(path): CompletableFuture<Path> |
+| +restoreSnapshot(path): void |
+| +markAllNotificationsAsRead(...) |
+| +getUnreadNotificationCount(...) |
+| +close(): void              |
 +-----------------------------+
 
 ================================
@@ -540,7 +4482,7 @@ UML Diagram:
 DB Schema:
 
 CREATE TABLE users (
-    id VARCHAR(36) PRIMARY KEY,
+    id VARCHAR(11) PRIMARY KEY,
     name VARCHAR(100),
     email VARCHAR(100) UNIQUE,
     hashed_password VARCHAR(255),
@@ -548,41 +4490,41 @@ CREATE TABLE users (
 );
 
 CREATE TABLE friend_requests (
-    id VARCHAR(36) PRIMARY KEY,
-    from_user_id VARCHAR(36),
-    to_user_id VARCHAR(36),
+    id VARCHAR(11) PRIMARY KEY,
+    from_user_id VARCHAR(11),
+    to_user_id VARCHAR(11),
     status ENUM('pending', 'accepted', 'rejected'),
     FOREIGN KEY (from_user_id) REFERENCES users(id),
     FOREIGN KEY (to_user_id) REFERENCES users(id)
 );
 
 CREATE TABLE posts (
-    id VARCHAR(36) PRIMARY KEY,
-    user_id VARCHAR(36),
+    id VARCHAR(11) PRIMARY KEY,
+    user_id VARCHAR(11),
     content TEXT,
     FOREIGN KEY (user_id) REFERENCES users(id)
 );
 
 CREATE TABLE post_likes (
-    post_id VARCHAR(36),
-    user_id VARCHAR(36),
+    post_id VARCHAR(11),
+    user_id VARCHAR(11),
     PRIMARY KEY (post_id, user_id),
     FOREIGN KEY (post_id) REFERENCES posts(id),
     FOREIGN KEY (user_id) REFERENCES users(id)
 );
 
 CREATE TABLE comments (
-    id VARCHAR(36) PRIMARY KEY,
-    user_id VARCHAR(36),
-    post_id VARCHAR(36),
+    id VARCHAR(11) PRIMARY KEY,
+    user_id VARCHAR(11),
+    post_id VARCHAR(11),
     content TEXT,
     FOREIGN KEY (user_id) REFERENCES users(id),
     FOREIGN KEY (post_id) REFERENCES posts(id)
 );
 
 CREATE TABLE notifications (
-    id VARCHAR(36) PRIMARY KEY,
-    user_id VARCHAR(36),
+    id VARCHAR(11) PRIMARY KEY,
+    user_id VARCHAR(11),
     type ENUM('FRIEND_REQUEST', 'FRIEND_REQUEST_ACCEPTED', 'LIKE', 'COMMENT', 'MENTION'),
     message TEXT,
     read BOOLEAN DEFAULT FALSE,
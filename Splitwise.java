@@ -1,11 +1,16 @@
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 class SplitwiseUser {
     private final String id;
     private final String name;
     private final String email;
-    private final Map<String, Double> balanceMap = new ConcurrentHashMap<>(); // userId -> balance
 
     public SplitwiseUser(String id, String name, String email) {
         this.id = id;
@@ -24,28 +29,6 @@ class SplitwiseUser {
     public String getEmail() {
         return email;
     }
-
-    public Map<String, Double> getBalanceMap() {
-        return balanceMap;
-    }
-
-    public void updateBalance(String otherUserId, double amount) {
-        balanceMap.put(otherUserId, balanceMap.getOrDefault(otherUserId, 0.0) + amount);
-    }
-
-    public void addBalance(String otherUserId, double amount) {
-        if (amount == 0)
-            return;
-        balanceMap.put(otherUserId, balanceMap.getOrDefault(otherUserId, 0.0) + amount);
-    }
-    
-    public double getBalance(String otherUserId) {
-        return balanceMap.getOrDefault(otherUserId, 0.0);
-    }
-
-    public Map<String, Double> getBalances() {
-        return balanceMap;
-    }
 }
 
 abstract class Split {
@@ -111,11 +94,26 @@ class Expense {
     }
 }
 
+class GroupBalances {
+    final List<SplitwiseUser> members;
+    final long[] net; // paise, net[i] > 0 means members.get(i) is owed money within the group
+
+    public GroupBalances(List<SplitwiseUser> members, long[] net) {
+        this.members = members;
+        this.net = net;
+    }
+}
+
 class Group {
     private final String id;
     private final String name;
-    private final List<SplitwiseUser> members = new ArrayList<>();
-    private final List<Expense> expenses = new ArrayList<>();
+    private final List<SplitwiseUser> members = new CopyOnWriteArrayList<>();
+    private final Queue<Expense> expenses = new ConcurrentLinkedQueue<>();
+    // Net position of each member inside this group, kept up to date by every expense and settlement.
+    // Updates share the read lock and stay atomic per slot, growing and snapshotting take the write lock.
+    private final Map<String, Integer> memberIndex = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock balanceLock = new ReentrantReadWriteLock();
+    private AtomicLongArray net = new AtomicLongArray(8);
 
     public Group(String id, String name) {
         this.id = id;
@@ -123,13 +121,82 @@ class Group {
     }
 
     public void addMember(SplitwiseUser user) {
-        members.add(user);
+        balanceLock.writeLock().lock();
+        try {
+            if (memberIndex.containsKey(user.getId())) return;
+            int index = members.size();
+            if (index == net.length()) {
+                AtomicLongArray grown = new AtomicLongArray(index * 2);
+                for (int i = 0; i < index; i++) {
+                    grown.set(i, net.get(i));
+                }
+                net = grown;
+            }
+            members.add(user);
+            memberIndex.put(user.getId(), index);
+        } finally {
+            balanceLock.writeLock().unlock();
+        }
+    }
+
+    public boolean isMember(String userId) {
+        return memberIndex.containsKey(userId);
     }
 
     public void addExpense(Expense expense) {
         expenses.add(expense);
     }
 
+    // shares[i] is what splits.get(i) owes the payer, in paise
+    public void recordExpense(String paidById, List<Split> splits, long[] shares) {
+        balanceLock.readLock().lock();
+        try {
+            int payer = memberIndex.get(paidById);
+            for (int i = 0; i < splits.size(); i++) {
+                int member = memberIndex.get(splits.get(i).getUser().getId());
+                if (member != payer) {
+                    net.addAndGet(payer, shares[i]);
+                    net.addAndGet(member, -shares[i]);
+                }
+            }
+        } finally {
+            balanceLock.readLock().unlock();
+        }
+    }
+
+    public long netOf(String userId) {
+        balanceLock.readLock().lock();
+        try {
+            return net.get(memberIndex.get(userId));
+        } finally {
+            balanceLock.readLock().unlock();
+        }
+    }
+
+    public void recordSettlement(String fromUserId, String toUserId, long amountMinor) {
+        balanceLock.readLock().lock();
+        try {
+            net.addAndGet(memberIndex.get(fromUserId), amountMinor);
+            net.addAndGet(memberIndex.get(toUserId), -amountMinor);
+        } finally {
+            balanceLock.readLock().unlock();
+        }
+    }
+
+    // O(members) copy; the write lock waits out in-flight updates, so the nets always sum to zero
+    public GroupBalances snapshotBalances() {
+        balanceLock.writeLock().lock();
+        try {
+            long[] copy = new long[members.size()];
+            for (int i = 0; i < copy.length; i++) {
+                copy[i] = net.get(i);
+            }
+            return new GroupBalances(List.copyOf(members), copy);
+        } finally {
+            balanceLock.writeLock().unlock();
+        }
+    }
+
     public List<SplitwiseUser> getMembers() {
         return members;
     }
@@ -173,17 +240,368 @@ class Transaction {
     }
 }
 
+class SettlementTransfer {
+    final int from; // index of the member who pays
+    final int to;
+    final long amountMinor; // paise
+
+    public SettlementTransfer(int from, int to, long amountMinor) {
+        this.from = from;
+        this.to = to;
+        this.amountMinor = amountMinor;
+    }
+}
+
+class DebtSimplifier {
+    // Subset DP is O(2^k * k), exact search is only worth it for small groups
+    static final int EXACT_LIMIT = 15;
+
+    // net[i] > 0 means member i is owed money, the values must sum to zero
+    public List<SettlementTransfer> simplify(long[] net) {
+        long total = 0;
+        List<Integer> open = new ArrayList<>();
+        for (int i = 0; i < net.length; i++) {
+            total += net[i];
+            if (net[i] != 0) {
+                open.add(i);
+            }
+        }
+        if (total != 0) {
+            throw new IllegalArgumentException("Net balances don't add up to zero");
+        }
+        long[] remaining = net.clone();
+        List<SettlementTransfer> transfers = new ArrayList<>();
+        if (open.size() <= EXACT_LIMIT) {
+            for (List<Integer> subset : zeroSumPartition(open, remaining)) {
+                settleGreedy(subset, remaining, transfers);
+            }
+        } else {
+            settleEqualPairs(open, remaining, transfers);
+            settleGreedy(open, remaining, transfers);
+        }
+        return transfers;
+    }
+
+    // A zero-sum set of k members needs k - 1 transfers, so the minimum is
+    // (members - number of disjoint zero-sum subsets) and the DP maximizes that count
+    private static List<List<Integer>> zeroSumPartition(List<Integer> members, long[] net) {
+        int k = members.size();
+        int full = (1 << k) - 1;
+        long[] sum = new long[1 << k];
+        int[] best = new int[1 << k];
+        for (int mask = 1; mask <= full; mask++) {
+            int low = Integer.numberOfTrailingZeros(mask);
+            sum[mask] = sum[mask & (mask - 1)] + net[members.get(low)];
+            int bestWithout = 0;
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                bestWithout = Math.max(bestWithout, best[mask ^ Integer.lowestOneBit(rest)]);
+            }
+            best[mask] = bestWithout + (sum[mask] == 0 ? 1 : 0);
+        }
+        // Walk back from the full set, every zero-sum prefix closes one subset
+        List<List<Integer>> partition = new ArrayList<>();
+        List<Integer> current = new ArrayList<>();
+        int mask = full;
+        while (mask != 0) {
+            int gain = sum[mask] == 0 ? 1 : 0;
+            if (gain == 1 && !current.isEmpty()) {
+                partition.add(current);
+                current = new ArrayList<>();
+            }
+            for (int rest = mask; rest != 0; rest &= rest - 1) {
+                int bit = Integer.lowestOneBit(rest);
+                if (best[mask ^ bit] + gain == best[mask]) {
+                    current.add(members.get(Integer.numberOfTrailingZeros(bit)));
+                    mask ^= bit;
+                    break;
+                }
+            }
+        }
+        if (!current.isEmpty()) {
+            partition.add(current);
+        }
+        return partition;
+    }
+
+    // A debtor and creditor with the same amount cancel out in one transfer
+    private static void settleEqualPairs(List<Integer> members, long[] remaining, List<SettlementTransfer> transfers) {
+        Map<Long, Deque<Integer>> creditorsByAmount = new HashMap<>();
+        for (int i : members) {
+            if (remaining[i] > 0) {
+                creditorsByAmount.computeIfAbsent(remaining[i], amount -> new ArrayDeque<>()).push(i);
+            }
+        }
+        for (int i : members) {
+            if (remaining[i] >= 0) {
+                continue;
+            }
+            Deque<Integer> creditors = creditorsByAmount.get(-remaining[i]);
+            if (creditors != null && !creditors.isEmpty()) {
+                int creditor = creditors.pop();
+                transfers.add(new SettlementTransfer(i, creditor, remaining[creditor]));
+                remaining[creditor] = 0;
+                remaining[i] = 0;
+            }
+        }
+    }
+
+    // Largest debtor pays largest creditor, at least one of them is settled per transfer
+    private static void settleGreedy(List<Integer> members, long[] remaining, List<SettlementTransfer> transfers) {
+        PriorityQueue<Integer> creditors = new PriorityQueue<>((a, b) -> Long.compare(remaining[b], remaining[a]));
+        PriorityQueue<Integer> debtors = new PriorityQueue<>((a, b) -> Long.compare(remaining[a], remaining[b]));
+        for (int i : members) {
+            if (remaining[i] > 0) {
+                creditors.add(i);
+            } else if (remaining[i] < 0) {
+                debtors.add(i);
+            }
+        }
+        while (!creditors.isEmpty() && !debtors.isEmpty()) {
+            int creditor = creditors.poll();
+            int debtor = debtors.poll();
+            long amount = Math.min(remaining[creditor], -remaining[debtor]);
+            transfers.add(new SettlementTransfer(debtor, creditor, amount));
+            remaining[creditor] -= amount;
+            remaining[debtor] += amount;
+            if (remaining[creditor] > 0) {
+                creditors.add(creditor);
+            }
+            if (remaining[debtor] < 0) {
+                debtors.add(debtor);
+            }
+        }
+    }
+}
+
+class LongBalanceMap {
+    // Open addressing with linear probing over parallel primitive arrays, no boxing on updates
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] values;
+    private int size;
+
+    public LongBalanceMap() {
+        this(8);
+    }
+
+    public LongBalanceMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new long[capacity];
+    }
+
+    public long get(int key) {
+        int slot = find(key);
+        return keys[slot] == EMPTY ? 0 : values[slot];
+    }
+
+    public long add(int key, long delta) {
+        int slot = find(key);
+        if (keys[slot] == EMPTY) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                resize();
+                slot = find(key);
+            }
+            keys[slot] = key;
+            size++;
+        }
+        values[slot] += delta;
+        return values[slot];
+    }
+
+    // Settled pairs keep their slot with a zero value, callers skip them
+    public int capacity() {
+        return keys.length;
+    }
+
+    public int keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+
+    private int find(int key) {
+        int mask = keys.length - 1;
+        int slot = (key * 0x9E3779B9) >>> 1 & mask;
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        values = new long[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
+
+class BalanceLedger {
+    // Amounts are kept in paise, so sums are exact no matter how many expenses pile up
+    private final Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    // A LongBalanceMap isn't thread-safe, callers must hold the user's stripe in LedgerLockStripes
+    // while touching its row. Arrays are replaced on growth, rows themselves are never moved
+    private volatile String[] userIds = new String[16];
+    private volatile LongBalanceMap[] rows = new LongBalanceMap[16]; // row of a user: other user -> what they owe this user
+    private volatile int size;
+
+    public static long toMinor(double amount) {
+        return Math.round(amount * 100.0);
+    }
+
+    public static double toMajor(long amountMinor) {
+        return amountMinor / 100.0;
+    }
+
+    public int indexOf(String userId) {
+        Integer index = indexes.get(userId);
+        return index != null ? index : intern(userId);
+    }
+
+    // Read paths use this one, so looking up a stranger never allocates a row
+    public int find(String userId) {
+        Integer index = indexes.get(userId);
+        return index != null ? index : -1;
+    }
+
+    private synchronized int intern(String userId) {
+        Integer existing = indexes.get(userId);
+        if (existing != null) {
+            return existing;
+        }
+        String[] grownIds = size == userIds.length ? Arrays.copyOf(userIds, size * 2) : userIds;
+        LongBalanceMap[] grownRows = size == rows.length ? Arrays.copyOf(rows, size * 2) : rows;
+        grownIds[size] = userId;
+        grownRows[size] = new LongBalanceMap();
+        // Publish the slot before the index, so whoever finds the index also sees the row
+        userIds = grownIds;
+        rows = grownRows;
+        int index = size;
+        size = index + 1;
+        indexes.put(userId, index);
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String userIdAt(int index) {
+        return userIds[index];
+    }
+
+    public LongBalanceMap row(int index) {
+        return rows[index];
+    }
+
+    // debtor now owes creditor amountMinor more, both sides move together
+    public void record(int creditor, int debtor, long amountMinor) {
+        if (amountMinor == 0 || creditor == debtor) {
+            return;
+        }
+        rows[creditor].add(debtor, amountMinor);
+        rows[debtor].add(creditor, -amountMinor);
+    }
+
+    public long getBalance(int user, int other) {
+        return rows[user].get(other);
+    }
+
+    public Map<String, Long> balancesOf(int user) {
+        Map<String, Long> balances = new LinkedHashMap<>();
+        LongBalanceMap row = rows[user];
+        for (int slot = 0; slot < row.capacity(); slot++) {
+            if (row.keyAt(slot) >= 0 && row.valueAt(slot) != 0) {
+                balances.put(userIds[row.keyAt(slot)], row.valueAt(slot));
+            }
+        }
+        return balances;
+    }
+}
+
+class LedgerLockStripes {
+    private final ReentrantLock[] locks;
+
+    public LedgerLockStripes(int stripes) {
+        locks = new ReentrantLock[Integer.highestOneBit(Math.max(1, stripes - 1)) << 1];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    // Stripes are always taken in ascending order, so two updates over
+    // overlapping users can't deadlock. Returns the stripes to unlock
+    public int[] lockAll(int[] userIndexes) {
+        int[] stripes = new int[userIndexes.length];
+        for (int i = 0; i < userIndexes.length; i++) {
+            stripes[i] = userIndexes[i] & (locks.length - 1);
+        }
+        Arrays.sort(stripes);
+        int distinct = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            if (i == 0 || stripes[i] != stripes[i - 1]) {
+                stripes[distinct++] = stripes[i];
+            }
+        }
+        stripes = Arrays.copyOf(stripes, distinct);
+        for (int stripe : stripes) {
+            locks[stripe].lock();
+        }
+        return stripes;
+    }
+
+    public void unlockAll(int[] stripes) {
+        for (int i = stripes.length - 1; i >= 0; i--) {
+            locks[stripes[i]].unlock();
+        }
+    }
+}
+
+class TransactionLog {
+    // Append-only, entries are never removed or reordered once written
+    private final Queue<Transaction> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicLong count = new AtomicLong();
+
+    public long append(Transaction transaction) {
+        entries.add(transaction);
+        return count.incrementAndGet();
+    }
+
+    public long size() {
+        return count.get();
+    }
+
+    public List<Transaction> snapshot() {
+        return new ArrayList<>(entries);
+    }
+}
+
 class SplitwiseService {
     private static SplitwiseService instance;
 
     private Map<String, SplitwiseUser> users;
     private Map<String, Group> groups;
-    private List<Transaction> transactions;
+    private final TransactionLog transactions = new TransactionLog();
+    private final BalanceLedger ledger = new BalanceLedger();
+    private final LedgerLockStripes ledgerLocks = new LedgerLockStripes(64);
+    private final DebtSimplifier debtSimplifier = new DebtSimplifier();
 
     private SplitwiseService() {
         users = new ConcurrentHashMap<>();
         groups = new ConcurrentHashMap<>();
-        transactions = new ArrayList<>();
     }
 
     public static synchronized SplitwiseService getInstance() {
@@ -195,6 +613,7 @@ class SplitwiseService {
 
     public void addUser(SplitwiseUser user) {
         users.put(user.getId(), user);
+        ledger.indexOf(user.getId());
     }
 
     public void createGroup(Group group) {
@@ -205,59 +624,146 @@ class SplitwiseService {
         Group group = groups.get(groupId);
         if (group == null) throw new IllegalArgumentException("Group not found");
 
-        group.addExpense(expense);
-
         SplitwiseUser paidBy = expense.getPaidBy();
-        double totalAmount = expense.getAmount();
         List<Split> splits = expense.getSplits();
+        if (!group.isMember(paidBy.getId())) throw new IllegalArgumentException("SplitwiseUser not in group");
+        for (Split split : splits) {
+            if (!group.isMember(split.getUser().getId())) throw new IllegalArgumentException("SplitwiseUser not in group");
+        }
+        long[] shares = allocateShares(BalanceLedger.toMinor(expense.getAmount()), splits);
+        group.addExpense(expense);
+
+        // Update balances, every affected user is locked for the whole expense so no reader sees half of it
+        int[] involved = new int[splits.size() + 1];
+        involved[0] = ledger.indexOf(paidBy.getId());
+        for (int i = 0; i < splits.size(); i++) {
+            splits.get(i).setAmount(BalanceLedger.toMajor(shares[i]));
+            involved[i + 1] = ledger.indexOf(splits.get(i).getUser().getId());
+        }
+        int[] stripes = ledgerLocks.lockAll(involved);
+        try {
+            for (int i = 0; i < splits.size(); i++) {
+                ledger.record(involved[0], involved[i + 1], shares[i]);
+            }
+            group.recordExpense(paidBy.getId(), splits, shares);
+        } finally {
+            ledgerLocks.unlockAll(stripes);
+        }
+    }
 
-        // Set split amounts
+    // Splits the total in paise so the shares always add up to it exactly,
+    // leftover paise go one each to the splits that lost the most to rounding
+    private static long[] allocateShares(long total, List<Split> splits) {
+        int n = splits.size();
+        long[] shares = new long[n];
         if (splits.get(0) instanceof EqualSplit) {
-            double splitAmount = Math.round((totalAmount / splits.size()) * 100.0) / 100.0;
-            for (Split split : splits) {
-                split.setAmount(splitAmount);
+            for (int i = 0; i < n; i++) {
+                shares[i] = total / n + (i < total % n ? 1 : 0);
             }
         } else if (splits.get(0) instanceof PercentSplit) {
-            for (Split split : splits) {
-                PercentSplit ps = (PercentSplit) split;
-                double calculatedAmount = Math.round((totalAmount * ps.getPercent() / 100.0) * 100.0) / 100.0;
-                ps.setAmount(calculatedAmount);
+            double percentTotal = 0;
+            double[] remainders = new double[n];
+            long allocated = 0;
+            for (int i = 0; i < n; i++) {
+                double percent = ((PercentSplit) splits.get(i)).getPercent();
+                percentTotal += percent;
+                double exact = total * percent / 100.0;
+                shares[i] = (long) Math.floor(exact);
+                remainders[i] = exact - shares[i];
+                allocated += shares[i];
             }
+            if (Math.abs(percentTotal - 100.0) > 1e-9) throw new IllegalArgumentException("Percentages must add up to 100");
+            for (long left = total - allocated; left > 0; left--) {
+                int largest = 0;
+                for (int i = 1; i < n; i++) {
+                    if (remainders[i] > remainders[largest]) largest = i;
+                }
+                shares[largest]++;
+                remainders[largest] = -1;
+            }
+        } else {
+            // ExactSplit already has amounts set
+            long allocated = 0;
+            for (int i = 0; i < n; i++) {
+                shares[i] = BalanceLedger.toMinor(splits.get(i).getAmount());
+                allocated += shares[i];
+            }
+            if (allocated != total) throw new IllegalArgumentException("Split amounts must add up to the expense total");
         }
-        // ExactSplit already has amounts set
+        return shares;
+    }
 
-        // Update balances
-        for (Split split : splits) {
-            if (split.getUser().getId().equals(paidBy.getId())) continue;
 
-            double owed = split.getAmount();
-            SplitwiseUser owedUser = split.getUser();
+    // Every debt comes from a group expense, so a payment names the group it settles.
+    // That keeps the group's net vector and the pairwise ledger moving together
+    public void settleBalance(String groupId, String fromUserId, String toUserId, double amount) {
+        Group group = groups.get(groupId);
+        if (group == null) throw new IllegalArgumentException("Group not found");
+        SplitwiseUser from = users.get(fromUserId);
+        SplitwiseUser to = users.get(toUserId);
 
-            paidBy.addBalance(owedUser.getId(), owed);
-            owedUser.addBalance(paidBy.getId(), -owed);
+        if (from == null || to == null) throw new IllegalArgumentException("SplitwiseUser not found");
+        if (!group.isMember(fromUserId) || !group.isMember(toUserId)) {
+            throw new IllegalArgumentException("SplitwiseUser not in group");
         }
-    }
 
+        applySettlement(from, to, amount, List.of(group), new long[] {BalanceLedger.toMinor(amount)});
+    }
 
+    // For callers that don't track groups. The payment is spread over the groups both users share,
+    // paying down what "from" can owe "to" in each, and any overpayment lands on the first of them
     public void settleBalance(String fromUserId, String toUserId, double amount) {
         SplitwiseUser from = users.get(fromUserId);
         SplitwiseUser to = users.get(toUserId);
-
         if (from == null || to == null) throw new IllegalArgumentException("SplitwiseUser not found");
 
-        from.addBalance(toUserId, -amount);
-        to.addBalance(fromUserId, amount);
+        List<Group> shared = new ArrayList<>();
+        for (Group group : groups.values()) {
+            if (group.isMember(fromUserId) && group.isMember(toUserId)) {
+                shared.add(group);
+            }
+        }
+        if (shared.isEmpty()) throw new IllegalArgumentException("No group shared by both users");
+        shared.sort(Comparator.comparing(Group::getId));
+
+        long remaining = BalanceLedger.toMinor(amount);
+        long[] shares = new long[shared.size()];
+        for (int i = 0; i < shared.size() && remaining > 0; i++) {
+            Group group = shared.get(i);
+            long owed = Math.min(Math.max(0, -group.netOf(fromUserId)), Math.max(0, group.netOf(toUserId)));
+            shares[i] = Math.min(owed, remaining);
+            remaining -= shares[i];
+        }
+        shares[0] += remaining;
+        applySettlement(from, to, amount, shared, shares);
+    }
 
+    // shares[i] is the part of the payment, in paise, that settles debt inside groups.get(i)
+    private void applySettlement(SplitwiseUser from, SplitwiseUser to, double amount, List<Group> groups, long[] shares) {
+        int fromIndex = ledger.indexOf(from.getId());
+        int toIndex = ledger.indexOf(to.getId());
         Transaction txn = new Transaction(UUID.randomUUID().toString(), from, to, amount);
-        transactions.add(txn);
+        int[] stripes = ledgerLocks.lockAll(new int[] {fromIndex, toIndex});
+        try {
+            // Paying reduces what "from" owes, so its balance towards "to" moves up
+            ledger.record(fromIndex, toIndex, BalanceLedger.toMinor(amount));
+            for (int i = 0; i < groups.size(); i++) {
+                if (shares[i] != 0) {
+                    groups.get(i).recordSettlement(from.getId(), to.getId(), shares[i]);
+                }
+            }
+            transactions.append(txn); // logged under the locks, so log order matches ledger order per pair
+        } finally {
+            ledgerLocks.unlockAll(stripes);
+        }
     }
 
     public void showBalances(String userId) {
         SplitwiseUser user = users.get(userId);
         if (user == null) return;
-        for (Map.Entry<String, Double> entry : user.getBalances().entrySet()) {
+        for (Map.Entry<String, Long> entry : balancesOf(userId).entrySet()) {
             String otherUserId = entry.getKey();
-            double amount = entry.getValue();
+            double amount = BalanceLedger.toMajor(entry.getValue());
             if (amount > 0) {
                 System.out.println("  " + users.get(otherUserId).getName() + " owes " + user.getName() + ": ₹" + amount);
             } else if (amount < 0) {
@@ -266,8 +772,90 @@ class SplitwiseService {
         }
     }
 
+    public double getBalance(String userId, String otherUserId) {
+        int user = ledger.find(userId);
+        int other = ledger.find(otherUserId);
+        if (user < 0 || other < 0) {
+            return 0;
+        }
+        int[] stripes = ledgerLocks.lockAll(new int[] {user});
+        try {
+            return BalanceLedger.toMajor(ledger.getBalance(user, other));
+        } finally {
+            ledgerLocks.unlockAll(stripes);
+        }
+    }
+
+    public Map<String, Double> getBalances(String userId) {
+        Map<String, Double> balances = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : balancesOf(userId).entrySet()) {
+            balances.put(entry.getKey(), BalanceLedger.toMajor(entry.getValue()));
+        }
+        return balances;
+    }
+
+    private Map<String, Long> balancesOf(String userId) {
+        int user = ledger.find(userId);
+        if (user < 0) {
+            return new LinkedHashMap<>();
+        }
+        int[] stripes = ledgerLocks.lockAll(new int[] {user});
+        try {
+            return ledger.balancesOf(user);
+        } finally {
+            ledgerLocks.unlockAll(stripes);
+        }
+    }
+
+    // Reads the group's incrementally kept net vector, O(members) with no pass over pairwise balances
+    public Map<String, Double> getGroupBalances(String groupId) {
+        Group group = groups.get(groupId);
+        if (group == null) throw new IllegalArgumentException("Group not found");
+
+        GroupBalances balances = group.snapshotBalances();
+        Map<String, Double> summary = new LinkedHashMap<>();
+        for (int i = 0; i < balances.members.size(); i++) {
+            summary.put(balances.members.get(i).getId(), BalanceLedger.toMajor(balances.net[i]));
+        }
+        return summary;
+    }
+
+    public void showGroupBalances(String groupId) {
+        Group group = groups.get(groupId);
+        if (group == null) throw new IllegalArgumentException("Group not found");
+
+        GroupBalances balances = group.snapshotBalances();
+        for (int i = 0; i < balances.members.size(); i++) {
+            double amount = BalanceLedger.toMajor(balances.net[i]);
+            String name = balances.members.get(i).getName();
+            if (amount > 0) {
+                System.out.println("  " + name + " gets back: ₹" + amount);
+            } else if (amount < 0) {
+                System.out.println("  " + name + " owes: ₹" + (-amount));
+            }
+        }
+    }
+
+    // Suggests the fewest transfers that clear every debt between the group's members.
+    // Nothing is applied, each suggestion can be paid through settleBalance
+    public List<Transaction> simplifyDebts(String groupId) {
+        Group group = groups.get(groupId);
+        if (group == null) throw new IllegalArgumentException("Group not found");
+
+        GroupBalances balances = group.snapshotBalances();
+        List<SplitwiseUser> members = balances.members;
+        long[] net = balances.net;
+
+        List<Transaction> suggestions = new ArrayList<>();
+        for (SettlementTransfer transfer : debtSimplifier.simplify(net)) {
+            suggestions.add(new Transaction(UUID.randomUUID().toString(), members.get(transfer.from),
+                    members.get(transfer.to), BalanceLedger.toMajor(transfer.amountMinor)));
+        }
+        return suggestions;
+    }
+
     public List<Transaction> getTransactions() {
-        return transactions;
+        return transactions.snapshot();
     }
 }
 
@@ -307,13 +895,28 @@ public class Splitwise {
         splitwise.showBalances("u3");
 
         // Settle: Bob pays Alice ₹100
-        splitwise.settleBalance("u2", "u1", 100);
+        splitwise.settleBalance("g1", "u2", "u1", 100);
 
         // Show updated balances
         System.out.println("\n🔁 After settlement:");
         splitwise.showBalances("u1");
         splitwise.showBalances("u2");
         splitwise.showBalances("u3");
+
+        // Expense 2: ₹90 paid by Charlie, split equally
+        List<Split> splits2 = new ArrayList<>();
+        splits2.add(new EqualSplit(u1));
+        splits2.add(new EqualSplit(u2));
+        splits2.add(new EqualSplit(u3));
+        splitwise.addExpense("g1", new Expense("e2", 90, "Dinner", u3, splits2));
+
+        System.out.println("\n📊 Goa Trip summary:");
+        splitwise.showGroupBalances("g1");
+
+        System.out.println("\n💸 Simplified settlements:");
+        for (Transaction txn : splitwise.simplifyDebts("g1")) {
+            System.out.println("  " + txn.getSender().getName() + " pays " + txn.getReceiver().getName() + ": ₹" + txn.getAmount());
+        }
     }
 }
 
@@ -328,14 +931,10 @@ UML Diagram for Splitwise
 | - id: String       |
 | - name: String     |
 | - email: String    |
-| - balanceMap: Map<String, Double> |
 +--------------------+
 | +getId(): String           |
 | +getName(): String         |
 | +getEmail(): String        |
-| +getBalanceMap(): Map<>    |
-| +addBalance(String, double)|
-| +getBalance(String): double|
 +----------------------------+
 
              ▲
@@ -380,10 +979,15 @@ UML Diagram for Splitwise
 | - name: String           |
 | - members: List<User>    |
 | - expenses: List<Expense>|
+| - memberIndex: Map<>     |
+| - net: AtomicLongArray   |
 +--------------------------+
 | +addMember(User)         |
 | +addExpense(Expense)     |
 | +getMembers(): List<>    |
+| +recordExpense(...)      |
+| +recordSettlement(...)   |
+| +snapshotBalances()      |
 +--------------------------+
 
 +------------------------------+
@@ -400,18 +1004,39 @@ UML Diagram for Splitwise
 +---------------------------------------+
 | - users: Map<String, User>            |
 | - groups: Map<String, Group>          |
-| - transactions: List<Transaction>     |
+| - transactions: TransactionLog        |
+| - ledger: BalanceLedger               |
+| - ledgerLocks: LedgerLockStripes      |
+| - debtSimplifier: DebtSimplifier      |
 +---------------------------------------+
 | +addUser(User)                        |
 | +createGroup(Group)                   |
 | +addExpense(groupId, amount, desc,    |
 |    paidBy, participants, splitType,   |
 |    values)                            |
-| +settleBalance(from, to, amount)      |
+| +settleBalance(groupId, from, to, amt)|
+| +settleBalance(from, to, amt)         |
+| +getGroupBalances(groupId): Map       |
+| +showGroupBalances(groupId)           |
 | +showBalances(userId)                 |
+| +getBalance(userId, otherId): double  |
+| +getBalances(userId): Map             |
+| +simplifyDebts(groupId): List<Txn>    |
 | +getTransactions(): List              |
 +---------------------------------------+
 
++---------------------------------------+
+|            BalanceLedger              |
++---------------------------------------+
+| - indexes: Map<String, Integer>       |
+| - rows: LongBalanceMap[]  (paise)     |
++---------------------------------------+
+| +indexOf(userId): int                 |
+| +find(userId): int  (-1 if unknown)   |
+| +record(creditor, debtor, minor)      |
+| +getBalance(user, other): long        |
++---------------------------------------+
+
 +------------------+
 |   <<enum>>       |
 |   SplitType      |
@@ -486,9 +1111,19 @@ DB Diagram
 +-------------------------------+
 | user_id         (FK → users)  |
 | other_user_id   (FK → users)  |
-| amount           (Decimal)    |
+| amount_minor     (BigInt)     |
 +-------------------------------+
 | PRIMARY KEY (user_id, other_user_id) |
++-------------------------------+
+
++-------------------------------+
+|       group_balances          |
++-------------------------------+
+| group_id        (FK → groups) |
+| user_id         (FK → users)  |
+| net_minor        (BigInt)     |
++-------------------------------+
+| PRIMARY KEY (group_id, user_id) |
 
 
  */
\ No newline at end of file